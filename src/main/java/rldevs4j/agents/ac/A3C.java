@@ -1,12 +1,23 @@
 
 package rldevs4j.agents.ac;
 
+import org.deeplearning4j.nn.gradient.DefaultGradient;
 import org.deeplearning4j.nn.gradient.Gradient;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.deeplearning4j.util.ModelSerializer;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.primitives.Triple;
 import rldevs4j.agents.ppov2.PPOActor;
+import rldevs4j.agents.ppov2.ParamsSnapshot;
+import rldevs4j.agents.utils.concurrent.EpisodeAggregator;
+import rldevs4j.agents.utils.concurrent.GradientAggregator;
+import rldevs4j.agents.utils.concurrent.ThreadBudget;
+import rldevs4j.agents.utils.concurrent.UpdateQueue;
+import rldevs4j.agents.utils.inference.InferenceService;
+import rldevs4j.agents.utils.metrics.Counter;
+import rldevs4j.agents.utils.metrics.Histogram;
+import rldevs4j.agents.utils.metrics.MetricsExport;
+import rldevs4j.agents.utils.metrics.MetricsRegistry;
 import rldevs4j.base.agent.preproc.Preprocessing;
 import rldevs4j.base.env.Environment;
 import rldevs4j.base.env.RLEnvironment;
@@ -15,14 +26,17 @@ import rldevs4j.experiment.ExperimentResult;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 /**
  * Asynchronous advantage actor-critic (A3C) global class (http://arxiv.org/abs/1602.01783).
@@ -35,14 +49,38 @@ public class A3C {
     private DiscreteACActor actor;
     private ACCritic critic;
     private float[][] actionSpace;
-    private final ConcurrentLinkedQueue<Triple<Gradient[],Integer, double[]>> queue; //gradients-batchsize
+    private UpdateQueue<Triple<Gradient[],Integer, double[]>> queue; //gradients-batchsize
+    private final int queueCapacity;
+    private final UpdateQueue.Policy queuePolicy;
+    private final int aggregationMaxGradients;
+    private final int aggregationWindowMs;
+    private GradientAggregator aggregator;
     private final List<A3CThread> workersThreads;
+    private final AtomicInteger activeWorkers;
+    private final AtomicReference<ParamsSnapshot> paramsSnapshot;
+    private final boolean centralInference;
+    private final int inferenceBatchSize;
+    private final int inferenceMaxWaitMicros;
+    private final boolean threadBudgetEnabled;
+    private final int threadBudgetCores;
+    private ThreadBudget threadBudget;
+    private DiscreteACActor inferenceActor;
+    private long inferenceParamsVersion;
+    private InferenceService<Integer> inference;
     private final double discountFactor;
     private final int horizon;
     private final Preprocessing preprocessing;
     
     private final int episodesPerWorker;
     private final double episodeMaxSimTime;
+    private final Map<String,Object> params;
+    private final MetricsRegistry metrics;
+    private final Counter stepCounter;
+    private final Counter gradientsEnqueued;
+    private final Counter gradientsApplied;
+    private final Histogram applyLatency;
+    private EpisodeAggregator statistics;
+    private final int statisticsCapacity;
 
     private final Logger logger;
     private final boolean debug;
@@ -59,21 +97,124 @@ public class A3C {
         this.actor = actor;
         this.critic = critic;
         this.workersThreads = new ArrayList<>();
+        this.activeWorkers = new AtomicInteger(0);
+        this.paramsSnapshot = new AtomicReference<>();
         this.envFactory = envFactory;
         this.preprocessing = preprocessing;
         this.discountFactor = (double) params.getOrDefault("DISCOUNT_RATE", 0.99D);
         this.horizon = (int) params.getOrDefault("HORIZON", 100);
-        this.queue = new ConcurrentLinkedQueue();
+        this.queueCapacity = (int) params.getOrDefault("QUEUE_CAPACITY", 100);
+        this.queuePolicy = UpdateQueue.Policy.valueOf((String) params.getOrDefault("QUEUE_POLICY", "BLOCK"));
+        this.aggregationMaxGradients = (int) params.getOrDefault("AGGREGATION_MAX_GRADIENTS", 1);
+        this.aggregationWindowMs = (int) params.getOrDefault("AGGREGATION_WINDOW_MS", 0);
+        this.centralInference = (boolean) params.getOrDefault("CENTRAL_INFERENCE", false);
+        this.inferenceBatchSize = (int) params.getOrDefault("INFERENCE_BATCH_SIZE", 0);
+        this.inferenceMaxWaitMicros = (int) params.getOrDefault("INFERENCE_MAX_WAIT_US", 500);
+        this.threadBudgetEnabled = (boolean) params.getOrDefault("THREAD_BUDGET", true);
+        this.threadBudgetCores = (int) params.getOrDefault("THREAD_BUDGET_CORES", Runtime.getRuntime().availableProcessors());
         this.episodesPerWorker = (int) params.get("EPISODES_WORKER");
         this.episodeMaxSimTime = (double) params.getOrDefault("SIMULATION_TIME", 3000);
         this.actionSpace = (float[][]) params.get("ACTION_SPACE");
         this.debug = (boolean) params.getOrDefault("DEBUG", false);
         this.logger = Logger.getGlobal();
+        this.params = params;
+        this.statisticsCapacity = (int) params.getOrDefault("STATISTICS_BUFFER", 1024);
+        this.metrics = new MetricsRegistry((String) params.getOrDefault("METRICS_NAME", "a3c"));
+        this.stepCounter = metrics.counter("env_steps");
+        this.gradientsEnqueued = metrics.counter("gradients_enqueued");
+        this.gradientsApplied = metrics.counter("gradients_applied");
+        this.applyLatency = metrics.histogram("apply_latency_ns");
+        metrics.gauge("queue_depth", () -> queue == null ? 0 : queue.size());
+        metrics.gauge("active_workers", () -> activeWorkers.get());
     }
     
 //    public synchronized void enqueueGradient(Gradient[] gradient, int steps, ComputationGraph c){
-    public synchronized void enqueueGradient(Gradient[] gradient, int steps, double[] score){
-        queue.add(new Triple<>(gradient, steps, score));
+    public void enqueueGradient(Gradient[] gradient, int steps, double[] score){
+        stepCounter.add(steps);
+        gradientsEnqueued.inc();
+        try {
+            queue.put(new Triple<>(gradient, steps, score));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Called by each worker thread when it has run all its episodes. When the last
+     * worker finishes the queue is closed, which wakes up and ends the learner.
+     */
+    public void workerFinished(){
+        if(activeWorkers.decrementAndGet() == 0) {
+            queue.close();
+            if(inference != null)
+                inference.shutdown();
+        }
+    }
+
+    public boolean isCentralInference(){
+        return centralInference;
+    }
+
+    /**
+     * Central inference. Sample an action batched together with the other workers' observations.
+     * @param obs
+     * @return
+     */
+    public int inferAction(INDArray obs){
+        return inference.act(obs);
+    }
+
+    /**
+     * Create the inference service, which owns its own copy of the actor and refreshes it
+     * from the published snapshots between batches.
+     * @param workers
+     */
+    private void createInferenceService(int workers){
+        inferenceActor = (DiscreteACActor) actor.clone();
+        inferenceParamsVersion = paramsSnapshot.get().getVersion();
+        inference = new InferenceService<>(obs -> {
+            ParamsSnapshot snapshot = paramsSnapshot.get();
+            if(snapshot.getVersion() != inferenceParamsVersion){
+                inferenceActor.getParams().assign(snapshot.getParams()[1]);
+                inferenceParamsVersion = snapshot.getVersion();
+            }
+            return Arrays.stream(inferenceActor.actions(obs)).boxed().collect(Collectors.toList());
+        }, inferenceBatchSize > 0 ? inferenceBatchSize : workers, inferenceMaxWaitMicros);
+    }
+
+    /**
+     * Reduce a window of queued gradients into one update and apply it.
+     * @param window
+     */
+    private void applyGradients(List<Triple<Gradient[], Integer, double[]>> window) {
+        long start = System.nanoTime();
+        if(window.size() == 1){
+            Triple<Gradient[], Integer, double[]> triple = window.get(0);
+            applyGradient(triple.getFirst(), triple.getSecond(), triple.getThird());
+            gradientsApplied.inc();
+            applyLatency.record(System.nanoTime() - start);
+            return;
+        }
+        List<INDArray[]> gradients = new ArrayList<>(window.size());
+        int[] steps = new int[window.size()];
+        int totalSteps = 0;
+        double[] score = new double[2];
+        for(int i=0;i<window.size();i++){
+            Triple<Gradient[], Integer, double[]> triple = window.get(i);
+            gradients.add(new INDArray[]{triple.getFirst()[0].gradient(), triple.getFirst()[1].gradient()});
+            steps[i] = triple.getSecond();
+            totalSteps += steps[i];
+            score[0] += triple.getThird()[0] / window.size();
+            score[1] += triple.getThird()[1] / window.size();
+        }
+        INDArray[] reduced = aggregator.reduce(gradients, GradientAggregator.stepWeights(steps));
+        applyGradient(new Gradient[]{new DefaultGradient(reduced[0]), new DefaultGradient(reduced[1])}, totalSteps, score);
+        long nanos = System.nanoTime() - start;
+        aggregator.record(window.size(), totalSteps, nanos);
+        gradientsApplied.add(window.size());
+        applyLatency.record(nanos);
+        if(debug)
+            logger.log(Level.INFO, "Applied {0} gradients ({1} steps) in {2} ms", new Object[]{window.size(), totalSteps, nanos / 1e6});
     }
 
     /**
@@ -86,37 +227,57 @@ public class A3C {
         critic.applyGradient(gradient[0], batchSize, score[0]);
         //Actor
         actor.applyGradient(gradient[1], batchSize, score[1]);
+        publishParams();
+    }
+
+    /**
+     * Publish a copy of the current global parameters with the next version number.
+     * Only called from the thread that updates the global networks, so the copy is never torn.
+     */
+    private void publishParams(){
+        ParamsSnapshot current = paramsSnapshot.get();
+        long version = current == null ? 0L : current.getVersion() + 1;
+        paramsSnapshot.set(new ParamsSnapshot(version, new INDArray[]{critic.getParams().dup(), actor.getParams().dup()}));
+    }
+
+    /**
+     * Latest published global parameters. Lock free.
+     * @return
+     */
+    public ParamsSnapshot getParamsSnapshot(){
+        return paramsSnapshot.get();
     }
     
     /**
-     * Save episode statistics
+     * Save episode statistics. Lock free, the episode is recorded by the statistics thread.
      * @param thread
      * @param episode
      * @param episodeReward 
      */
-    public synchronized void saveStatistics(String thread, int episode, double episodeReward, long episodeTime){
-        results.addResult(episodeReward, episodeTime);        
-        if(this.debug || episode%1==0) {
-            logger.log(Level.INFO, "{0} episode {1} terminated. Reward: {2}. Avg-Reward: {3}", new Object[]{thread, episode, episodeReward, results.getLastAverageReward()});
-            double estimatedTimeMinutes = results.getAverageTime().get(results.size()-1)*(episodesPerWorker-episode)/60000;
-            int hours = (int) (estimatedTimeMinutes / 60);
-            int minutes = (int) (estimatedTimeMinutes % 60);
-            logger.log(Level.INFO, "Estimated time to complete experiment: {0}:{1} Hs", new Object[]{hours, minutes});
-        }
+    public void saveStatistics(String thread, int episode, double episodeReward, long episodeTime){
+        statistics.publish(new EpisodeAggregator.Episode(thread, episode, episodeReward, episodeTime));
     }
-    
+
     /**
-     * Iterate over ThreadWorkers checking if are still running.
-     * @return 
+     * Record a batch of episodes in the results and log them. Only called from the
+     * statistics thread.
+     * @param episodes
      */
-    private boolean isTrainingComplete(){
-        boolean flag = true;
-        for(A3CThread tw : workersThreads)
-            if(tw.isRunning()){
-                flag = false;
-                break;
-            }
-        return flag;
+    private void recordEpisodes(List<EpisodeAggregator.Episode> episodes){
+        StringBuilder sb = new StringBuilder();
+        int episode = 0;
+        for(EpisodeAggregator.Episode e : episodes){
+            results.addResult(e.getReward(), e.getTime());
+            sb.append(e.getThread()).append(" episode ").append(e.getEpisode())
+                    .append(" terminated. Reward: ").append(e.getReward())
+                    .append(". Avg-Reward: ").append(results.getLastAverageReward()).append('\n');
+            episode = e.getEpisode();
+        }
+        double estimatedTimeMinutes = results.getAverageTime().get(results.size()-1)*(episodesPerWorker-episode)/60000;
+        int hours = (int) (estimatedTimeMinutes / 60);
+        int minutes = (int) (estimatedTimeMinutes % 60);
+        sb.append("Estimated time to complete experiment: ").append(hours).append(':').append(minutes).append(" Hs");
+        logger.info(sb.toString());
     }
     
     /**
@@ -126,7 +287,15 @@ public class A3C {
      */
     public void startTraining(int workers) throws InterruptedException{
         this.results = new ExperimentResult();
+        this.statistics = new EpisodeAggregator("statistics_thread", this::recordEpisodes, statisticsCapacity);
         this.workersThreads.clear();
+        this.queue = new UpdateQueue<>(queueCapacity, queuePolicy);
+        this.aggregator = new GradientAggregator();
+        this.activeWorkers.set(workers);
+        this.inference = null;
+        publishParams();
+        if(centralInference)
+            createInferenceService(workers);
         // create workers
         for(int i=0;i<workers;i++){
             Environment env = envFactory.createInstance();
@@ -145,29 +314,68 @@ public class A3C {
             this.workersThreads.add(thread);
         }
         // Start workers
+        MetricsExport metricsExport = new MetricsExport(metrics, params);
+        planThreads(workers, centralInference ? 2 : 1);
         ExecutorService es = Executors.newCachedThreadPool();
+        if(inference != null)
+            es.execute(ThreadBudget.withThreads(inference, serviceOpThreads()));
         for(int i=0;i<workers;i++)
-            es.execute(workersThreads.get(i));
+            es.execute(ThreadBudget.withThreads(workersThreads.get(i), workerOpThreads()));
 
-        es.execute(new Runnable() {
+        es.execute(ThreadBudget.withThreads(new Runnable() {
                 @Override
                 public void run() {
-                    // While loop for queued gradient updates
-                    while (!isTrainingComplete()) {
-                        if (!queue.isEmpty()) {
-//                            System.out.println("queue size: "+queue.size());
-                            Triple<Gradient[], Integer, double[]> triple = queue.poll();
-                            Gradient[] gradient = triple.getFirst();
-                            applyGradient(gradient, triple.getSecond(), triple.getThird());
+                    // Block until a gradient is queued or every worker has finished,
+                    // then apply it together with the gradients collected in the window
+                    List<Triple<Gradient[], Integer, double[]>> window = new ArrayList<>(aggregationMaxGradients);
+                    try {
+                        while (queue.takeBatch(window, aggregationMaxGradients, aggregationWindowMs, TimeUnit.MILLISECONDS) > 0) {
+                            applyGradients(window);
+                            window.clear();
                         }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
                     }
+                    logger.log(Level.INFO, "Learner finished. Max gradient queue depth: {0}/{1}. Dropped gradients: {2}",
+                            new Object[]{queue.getMaxDepth(), queue.getCapacity(), queue.getDropped()});
+                    logger.log(Level.INFO, "Applied {0} aggregated gradients in {1} updates. Avg gradients per update: {2}. Avg update time: {3} ms",
+                            new Object[]{aggregator.getGradients(), aggregator.getApplies(), aggregator.getAverageGradientsPerApply(), aggregator.getAverageApplyMillis()});
                 }
-            });
+            }, serviceOpThreads()));
         es.shutdown();
         es.awaitTermination(10, TimeUnit.DAYS);
-
+        statistics.close();
+        statistics = null;
+        metricsExport.close();
     }
     
+    /**
+     * Plan the ND4J threads of the workers and of the service threads (learner, inference).
+     * @param workers
+     * @param services
+     */
+    private void planThreads(int workers, int services){
+        this.threadBudget = threadBudgetEnabled ? new ThreadBudget(threadBudgetCores, workers, services) : null;
+        if(threadBudget != null)
+            logger.log(Level.INFO, threadBudget.toString());
+    }
+
+    private int workerOpThreads(){
+        return threadBudget == null ? 0 : threadBudget.getWorkerThreads();
+    }
+
+    private int serviceOpThreads(){
+        return threadBudget == null ? 0 : threadBudget.getServiceThreads();
+    }
+
+    /**
+     * Training throughput metrics, exported to JMX and to METRICS_FILE (see MetricsExport).
+     * @return
+     */
+    public MetricsRegistry getMetrics(){
+        return metrics;
+    }
+
     public synchronized INDArray[] getNetsParams(){
         return new INDArray[]{this.critic.getParams(), this.actor.getParams()};
     }
@@ -15,7 +15,7 @@ public class A3CThread extends Thread {
     private final int workerEpisodes;
     private final double episodeTime;
     private final RLEnvironment container;
-    private boolean running;
+    private volatile boolean running;
     private final boolean DEBUG_MODE = false;
 
     public A3CThread(String name, A3C a3c, int workerEpisodes, double episodeTime, RLEnvironment container) {
@@ -34,6 +34,16 @@ public class A3CThread extends Thread {
     @Override
     public void run() {
         this.running = true;
+        try {
+            runEpisodes();
+        } finally {
+            this.running = false;
+            a3c.workerFinished();
+        }
+        container.getAgent().clear();
+    }
+
+    private void runEpisodes() {
         for (int i = 1; i <= workerEpisodes; i++) {
             //Inititalize environment and simulator
             facade = new DevsSuiteFacade(this.container);
@@ -49,8 +59,6 @@ public class A3CThread extends Thread {
             //Calc gradients, enqueue gradients and reset worker agent
             this.container.getAgent().episodeFinished();   
         }
-        this.running = false;        
-        container.getAgent().clear();
     }
 
 }
\ No newline at end of file
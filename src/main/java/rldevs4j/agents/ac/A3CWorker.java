@@ -3,8 +3,11 @@ package rldevs4j.agents.ac;
 import org.deeplearning4j.nn.gradient.Gradient;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
+import rldevs4j.agents.utils.AdvantageEstimation;
 import rldevs4j.agents.utils.memory.TDTuple;
 import rldevs4j.agents.utils.memory.TDTupleBatch;
+import rldevs4j.agents.utils.metrics.Counter;
+import rldevs4j.agents.utils.metrics.Histogram;
 import rldevs4j.agents.utils.scaler.StandartScaler;
 import rldevs4j.base.agent.Agent;
 import rldevs4j.base.agent.preproc.Preprocessing;
@@ -33,6 +36,9 @@ public class A3CWorker extends Agent {
     private final double discountFactor; //discount rate
 
     private boolean firstTime;
+    private final Counter envSteps;
+    private final Histogram decisionLatency;
+    private final Histogram syncLatency;
 
     private Logger logger;
     private boolean debug;
@@ -54,6 +60,9 @@ public class A3CWorker extends Agent {
         this.horizon = horizon;
         this.discountFactor = discountFactor;
         this.global = global;
+        this.envSteps = global.getMetrics().counter("worker_" + id + "_env_steps");
+        this.decisionLatency = global.getMetrics().histogram("decision_latency_ns");
+        this.syncLatency = global.getMetrics().histogram("sync_latency_ns");
         this.trace = new ArrayList<>();
         this.cumReward = 0;
         this.logger = Logger.getGlobal();
@@ -77,12 +86,13 @@ public class A3CWorker extends Agent {
             if(trace.size() == horizon)
                 train();
         }
-        int action = actor.action(state);
-        INDArray onehotAction = Nd4j.zeros(actionSpace.length);
-        onehotAction.putScalar(action, 1D);
+        envSteps.inc();
+        long start = System.nanoTime();
+        int action = global.isCentralInference() ? global.inferAction(state) : actor.action(state);
+        decisionLatency.record(System.nanoTime() - start);
 
-        //store current td tuple
-        currentTuple = new TDTuple(state.dup(), onehotAction, null, 0);
+        //store current td tuple, with the action index
+        currentTuple = new TDTuple(state.dup(), action, null, 0);
 //        if(debug){ // Debuging
 //            logger.info(currentTuple.toStringMinimal());
 //            logger.log(Level.INFO, "Action: {0}", Arrays.toString(actionSpace[action]));
@@ -103,16 +113,18 @@ public class A3CWorker extends Agent {
             INDArray oldValues = critic.output(batch.getStates());
             //gae[0] -> returns
             //gae[1] -> advantages
-            INDArray[] gae = advantageEStimation(oldValues, scaler.partialFitTransform(batch.getRewards()), batch.getDone());
+            INDArray[] gae = AdvantageEstimation.cumulativeReward(oldValues, scaler.partialFitTransform(batch.getRewards()), batch.getDone(), discountFactor);
 
             Gradient gActor = actor.gradient(batch.getStates(), batch.getActions(), gae[1]);
             Gradient gCritic = critic.gradient(batch.getStates(), gae[0]);
 
             global.enqueueGradient(new Gradient[]{gCritic, gActor}, trace.size(), new double[]{critic.getScore(), actor.getScore()});
-            INDArray[] globalParams = global.getNetsParams();
+            long start = System.nanoTime();
+            INDArray[] globalParams = global.getParamsSnapshot().getParams();
 
-            critic.setParams(globalParams[0]);
-            actor.setParams(globalParams[1]);
+            critic.getParams().assign(globalParams[0]);
+            actor.getParams().assign(globalParams[1]);
+            syncLatency.record(System.nanoTime() - start);
 
             firstTime = false;
             trace.clear();
@@ -126,23 +138,6 @@ public class A3CWorker extends Agent {
         return new double[]{0};
     }
 
-    /**
-     * Advantage Estimation
-     */
-    private INDArray[] advantageEStimation(INDArray values, double[] rewards, double[] mask){
-        INDArray returns = Nd4j.zeros(rewards.length);
-        INDArray advantages = Nd4j.zeros(rewards.length);
-        double cum_reward = 0F;
-
-        for(int t=rewards.length-1;t>=0;t--){
-            cum_reward += rewards[t];
-            returns.putScalar(t, rewards[t] - discountFactor * values.getDouble(t) * mask[t]);
-            advantages.putScalar(t, cum_reward - discountFactor * values.getDouble(t) * mask[t]);
-        }
-
-        return new INDArray[]{returns, advantages};
-    }
-
     @Override
     public void episodeFinished() {
         super.episodeFinished();
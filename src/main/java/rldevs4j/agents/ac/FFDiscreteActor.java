@@ -19,6 +19,7 @@ import org.nd4j.linalg.indexing.BooleanIndexing;
 import org.nd4j.linalg.indexing.conditions.Conditions;
 import org.nd4j.linalg.learning.config.Adam;
 import org.nd4j.linalg.ops.transforms.Transforms;
+import rldevs4j.agents.utils.AgentUtils;
 import rldevs4j.agents.utils.distribution.Categorical;
 
 import java.io.File;
@@ -96,6 +97,13 @@ public class FFDiscreteActor implements DiscreteACActor {
         return idx;
     }
 
+    @Override
+    public int[] actions(INDArray obs) {
+        INDArray probs = this.model.output(obs)[0];
+        Categorical dist = new Categorical(probs);
+        return dist.sample().toIntVector();
+    }
+
     @Override
     public int actionMax(INDArray obs) {
         INDArray prob = this.model.output(obs.reshape(new int[]{1, obs.columns()}))[0];
@@ -107,7 +115,8 @@ public class FFDiscreteActor implements DiscreteACActor {
         INDArray[] output = this.output(states, actions);
         INDArray logProb = Transforms.log(output[1]);
 //        INDArray lossPerPoint = logProb.mulColumnVector(advantages);
-        INDArray lossPerPoint = output[2].mulColumnVector(advantages);
+        // actions are indices, spread the taken actions terms over their columns
+        INDArray lossPerPoint = AgentUtils.scatter(Nd4j.zeros(output[1].shape()), actions, output[2].mulColumnVector(advantages));
         INDArray entropyLoss = output[3].mul(entropyFactor);
         lossPerPoint.addiColumnVector(entropyLoss);
         //Extra info
@@ -7,6 +7,10 @@ import org.nd4j.linalg.factory.Nd4j;
 import rldevs4j.agents.ppo.ProximalPolicyOptimization;
 import rldevs4j.agents.utils.memory.ExperienceReplayBuffer;
 import rldevs4j.agents.utils.memory.TDTuple;
+import rldevs4j.agents.utils.metrics.Counter;
+import rldevs4j.agents.utils.metrics.Histogram;
+import rldevs4j.agents.utils.metrics.MetricsExport;
+import rldevs4j.agents.utils.metrics.MetricsRegistry;
 import rldevs4j.base.agent.Agent;
 import rldevs4j.base.agent.preproc.Preprocessing;
 import rldevs4j.base.env.msg.Continuous;
@@ -38,6 +42,11 @@ public class DDQN extends Agent {
     private boolean debug;
     private int iteration;
     private Logger logger;
+    private final MetricsRegistry metrics;
+    private final Counter steps;
+    private final Histogram decisionLatency;
+    private final Histogram trainLatency;
+    private MetricsExport metricsExport;
 
     public DDQN(
             String name,
@@ -54,6 +63,11 @@ public class DDQN extends Agent {
         debug = (boolean) params.getOrDefault("DEBUG", false);
         logger = Logger.getGlobal();
         iteration = 0;
+        metrics = new MetricsRegistry(name);
+        steps = metrics.counter("env_steps");
+        decisionLatency = metrics.histogram("decision_latency_ns");
+        trainLatency = metrics.histogram("train_latency_ns");
+        metricsExport = new MetricsExport(metrics, params);
     }    
     
     @Override
@@ -69,12 +83,17 @@ public class DDQN extends Agent {
             memory.add(currentTuple.copy()); //add current tuple to currentTrace
         }
 
+        long start = System.nanoTime();
         int action = model.action(state);
+        decisionLatency.record(System.nanoTime() - start);
+        steps.inc();
 
         //store current td tuple
         currentTuple = new TDTuple(state.dup(), action, null, 0);
         //Train the model
+        start = System.nanoTime();
         model.train(memory.sample(batchSize), batchSize, iteration); // Experience Replay
+        trainLatency.record(System.nanoTime() - start);
 
 //        if(debug){ // Debuging
 //            logger.info(currentTuple.toStringMinimal());
@@ -91,6 +110,10 @@ public class DDQN extends Agent {
 
     @Override
     public void trainingFinished() {
+        if(metricsExport != null){
+            metricsExport.close();
+            metricsExport = null;
+        }
     }
 
     @Override
@@ -121,4 +144,8 @@ public class DDQN extends Agent {
     public Model getModel(){
         return model;
     }
+
+    public MetricsRegistry getMetrics(){
+        return metrics;
+    }
 }
@@ -1,7 +1,7 @@
 package rldevs4j.agents.ppo;
 
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.factory.Nd4j;
+import rldevs4j.agents.utils.AdvantageEstimation;
 import rldevs4j.agents.utils.memory.TDTuple;
 import rldevs4j.agents.utils.memory.TDTupleBatch;
 import rldevs4j.agents.utils.scaler.StandartScaler;
@@ -104,7 +104,7 @@ public class ProximalPolicyOptimization extends Agent{
         INDArray oldValues = PPOCritic.output(batch.getStates());
         //gae[0] -> returns
         //gae[1] -> advantages
-        INDArray[] gae = gae(oldValues, scaler.partialFitTransform(batch.getRewards()), batch.getDone());
+        INDArray[] gae = AdvantageEstimation.gae(oldValues, scaler.partialFitTransform(batch.getRewards()), batch.getDone(), discountRate, lambdaGae);
 //        INDArray[] gae = gae(oldValues, batch.getRewards(), batch.getDone());
 
         double actorLoss = 0;
@@ -120,30 +120,6 @@ public class ProximalPolicyOptimization extends Agent{
         return new double[]{actorLoss, criticLoss};
     }    
 
-    /**
-     * General Advantage Estimation
-     */
-    private INDArray[] gae(INDArray values, double[] rewards, double[] mask){
-        INDArray returns = Nd4j.zeros(rewards.length);
-        INDArray advantages = Nd4j.zeros(rewards.length);
-        
-        double runningReturn = 0D;
-        double previousValue = 0D;
-        double runningAdvantage = 0D;
-        
-        for(int t=rewards.length-1;t>=0;t--){
-            runningReturn = rewards[t] + discountRate * runningReturn * mask[t];
-            double runningTdError = rewards[t] + discountRate * previousValue * mask[t] - values.getDouble(t);
-            runningAdvantage = runningTdError + discountRate * lambdaGae * runningAdvantage * mask[t];
-        
-            returns.putScalar(t, runningReturn);
-            previousValue = values.getDouble(t);
-            advantages.putScalar(t, runningAdvantage);
-        }
-        
-        return new INDArray[]{returns, advantages};
-    }
-
     @Override
     public double getTotalReward() {
         return cumReward;
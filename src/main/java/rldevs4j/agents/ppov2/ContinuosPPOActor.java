@@ -4,5 +4,6 @@ import org.nd4j.linalg.api.ndarray.INDArray;
 
 public interface ContinuosPPOActor extends PPOActor {
     public float[] action(INDArray obs);
+    public float[][] actions(INDArray obs);
     public float[] actionOnlyMean(INDArray obs);
 }
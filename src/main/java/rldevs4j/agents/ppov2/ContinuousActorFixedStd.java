@@ -14,6 +14,7 @@ import org.deeplearning4j.optimize.api.TrainingListener;
 import org.deeplearning4j.optimize.listeners.ScoreIterationListener;
 import org.deeplearning4j.ui.stats.StatsListener;
 import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.learning.config.Adam;
@@ -38,6 +39,7 @@ public class ContinuousActorFixedStd implements ContinuosPPOActor {
     private final float LOG_STD = -0.5F; // std = e^-20 = 0.000000002
     private float tahnActionLimit; //max sample value
     private float currentApproxKL;
+    private INDArray input;
 
     public ContinuousActorFixedStd(String modelPath) throws IOException {
         this.loadModel(modelPath);
@@ -110,12 +112,27 @@ public class ContinuousActorFixedStd implements ContinuosPPOActor {
     }
     
     public float[] action(INDArray obs){
-        Normal pi = distribution(obs.reshape(new int[]{1, obs.columns()}));
-        INDArray sample = pi.sample();
-        INDArray tanhSample = Transforms.tanh(sample);
+        // single observation input row, reused between decisions
+        if(input == null)
+            input = Nd4j.zeros(1, obs.length());
+        input.assign(obs);
+        try(MemoryWorkspace ws = AgentUtils.openDecisionWorkspace()){
+            Normal pi = distribution(model.output(false, ws, input));
+            INDArray sample = pi.sample();
+            INDArray tanhSample = Transforms.tanh(sample);
+            tanhSample = tanhSample.muli(this.tahnActionLimit);
+            tanhSample = Transforms.max(tanhSample, 0);
+            return tanhSample.toFloatVector();
+        }
+    }
+
+    @Override
+    public float[][] actions(INDArray obs){
+        Normal pi = distribution(obs);
+        INDArray tanhSample = Transforms.tanh(pi.sample());
         tanhSample = tanhSample.muli(this.tahnActionLimit);
         tanhSample = Transforms.max(tanhSample, 0);
-        return tanhSample.toFloatVector();
+        return tanhSample.toFloatMatrix();
     }
 
     @Override
@@ -126,32 +143,41 @@ public class ContinuousActorFixedStd implements ContinuosPPOActor {
     }
 
     private Normal distribution(INDArray obs){
-        INDArray[] output = model.output(obs);
+        return distribution(model.output(obs));
+    }
+
+    private Normal distribution(INDArray[] output){
         INDArray mean = output[0];
         //Clamp LogStd
         INDArray std = Transforms.exp(Nd4j.ones(mean.shape()).muli(LOG_STD));
         return new Normal(mean, std);
     }
 
-    private INDArray loss(INDArray states , INDArray actions, INDArray advantages, INDArray oldPi, INDArray logOldPi){
-        //output[0] -> sample, output[1] -> logProb, output[2] -> entropy
-        INDArray[] output = this.output(states, actions);
-        INDArray ratio = Transforms.exp(output[1].sub(logOldPi));
+    /**
+     * Surrogate loss per point of the mean output of the training forward pass.
+     */
+    private INDArray loss(INDArray mean, INDArray actions, INDArray advantages, INDArray oldPi, INDArray logOldPi){
+        Normal pi = distribution(new INDArray[]{mean});
+        INDArray logPi = pi.logProb(actions);
+        INDArray entropy = pi.entropy();
+        INDArray ratio = Transforms.exp(logPi.sub(logOldPi));
         INDArray clipAdv = ratio.dup();
         AgentUtils.clamp(clipAdv, 1D-epsilonClip, 1D+epsilonClip);
         clipAdv.muliColumnVector(advantages);
         INDArray lossPerPoint = Transforms.min(ratio.mulColumnVector(advantages), clipAdv);
         lossPerPoint.negi();
-        lossPerPoint.add(output[2].mul(this.entropyFactor));
+        lossPerPoint.add(entropy.mul(this.entropyFactor));
         //Extra info
-        currentApproxKL = (logOldPi.sub(output[2])).mean().getFloat(0);
+        currentApproxKL = (logOldPi.sub(entropy)).mean().getFloat(0);
         return lossPerPoint;
     }
 
     @Override
     public Gradient gradient(INDArray states , INDArray actions, INDArray advantages, INDArray oldPi, INDArray logProbOld) {
-        INDArray lossPerPoint = loss(states, actions, advantages, oldPi, logProbOld);
-        model.feedForward(new INDArray[]{states}, true, false);
+        // one training forward pass: the loss comes from its output and is backpropagated from there
+        INDArray mean = model.feedForward(new INDArray[]{states}, true, false)
+                .get(model.getConfiguration().getNetworkOutputs().get(0));
+        INDArray lossPerPoint = loss(mean, actions, advantages, oldPi, logProbOld);
         Gradient g = model.backpropGradient(lossPerPoint);
         model.setScore(lossPerPoint.meanNumber().doubleValue());
 
@@ -4,5 +4,20 @@ import org.nd4j.linalg.api.ndarray.INDArray;
 
 public interface DiscretePPOActor extends PPOActor {
     public int action(INDArray obs);
+    /**
+     * Sample an action and copy the action probabilities it was sampled from.
+     * @param obs
+     * @param probs [1, actions] row to write the probabilities into, or null
+     * @return sampled action
+     */
+    public int action(INDArray obs, INDArray probs);
+    public int[] actions(INDArray obs);
+    /**
+     * Sample one action per observation row and copy the probabilities they were sampled from.
+     * @param obs
+     * @param probs [rows, actions] matrix to write the probabilities into, or null
+     * @return sampled actions
+     */
+    public int[] actions(INDArray obs, INDArray probs);
     public int actionMax(INDArray obs);
 }
@@ -0,0 +1,33 @@
+package rldevs4j.agents.ppov2;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Episodes shared by all the worker threads, so the total number of episodes does not
+ * depend on how many workers are running.
+ */
+public class EpisodeBudget {
+    private final int total;
+    private final AtomicInteger claimed;
+
+    public EpisodeBudget(int total) {
+        this.total = total;
+        this.claimed = new AtomicInteger(0);
+    }
+
+    /**
+     * @return number of the claimed episode, starting at 1, or -1 if the budget is spent
+     */
+    public int claim() {
+        int episode = claimed.incrementAndGet();
+        return episode <= total ? episode : -1;
+    }
+
+    public int getRemaining() {
+        return Math.max(0, total - claimed.get());
+    }
+
+    public int getTotal() {
+        return total;
+    }
+}
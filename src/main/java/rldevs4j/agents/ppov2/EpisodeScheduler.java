@@ -0,0 +1,158 @@
+package rldevs4j.agents.ppov2;
+
+import facade.DevsSuiteFacade;
+import rldevs4j.agents.utils.concurrent.ThreadBudget;
+import rldevs4j.base.env.RLEnvironment;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a global budget of episodes as independent tasks on a work stealing pool, instead of
+ * a fixed number of consecutive episodes per worker thread. Each task borrows an idle worker
+ * container, runs one episode and gives it back, so a container whose episodes are short
+ * simply runs more of them and no thread sits idle while episodes remain.
+ * Once every episode has been claimed the containers are retired (workerFinished) as soon as
+ * they become idle.
+ */
+public class EpisodeScheduler {
+    private final PPOLearner learner;
+    private final List<RLEnvironment> containers;
+    private final ArrayDeque<Integer> idle;
+    private final int totalEpisodes;
+    private final double episodeTime;
+    private final int opThreads;
+    private final Logger logger;
+    private int claimed;
+    private int retired;
+
+    /**
+     * @param learner
+     * @param containers worker containers, each one runs a single episode at a time
+     * @param totalEpisodes episodes to run among all the containers
+     * @param episodeTime simulation time of each episode
+     * @param opThreads ND4J threads of each pool thread, 0 to leave the default
+     */
+    public EpisodeScheduler(PPOLearner learner, List<RLEnvironment> containers, int totalEpisodes, double episodeTime, int opThreads) {
+        this.learner = learner;
+        this.containers = new ArrayList<>(containers);
+        this.idle = new ArrayDeque<>();
+        for(int i=0;i<containers.size();i++)
+            idle.addLast(i);
+        this.totalEpisodes = totalEpisodes;
+        this.episodeTime = episodeTime;
+        this.opThreads = opThreads;
+        this.logger = Logger.getGlobal();
+        this.claimed = 0;
+        this.retired = 0;
+    }
+
+    /**
+     * Run every episode and wait until all of them have finished.
+     * @throws InterruptedException
+     */
+    public void run() throws InterruptedException {
+        if(totalEpisodes <= 0){
+            retireIdle();
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(containers.size());
+        CountDownLatch done = new CountDownLatch(totalEpisodes);
+        try {
+            for(int i=0;i<totalEpisodes;i++)
+                pool.execute(() -> {
+                    try {
+                        runEpisode();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (RuntimeException e) {
+                        logger.log(Level.SEVERE, "Episode failed", e);
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            done.await();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void runEpisode() throws InterruptedException {
+        int id;
+        int episode;
+        synchronized (this) {
+            // the pool may add compensation threads while a worker waits (e.g. at the SYNC barrier)
+            while(idle.isEmpty())
+                wait();
+            id = idle.pollFirst();
+            episode = ++claimed;
+        }
+        RLEnvironment container = containers.get(id);
+        try {
+            ThreadBudget.applyToCurrentThread(opThreads);
+            DevsSuiteFacade facade = new DevsSuiteFacade(container);
+            facade.reset();
+            long initTime = System.currentTimeMillis();
+            facade.simulateToTime(episodeTime);
+            long finishTime = System.currentTimeMillis();
+            learner.saveStatistics("worker_"+id, episode, container.getAgent().getTotalReward(), finishTime-initTime);
+            container.getAgent().episodeFinished();
+        } finally {
+            release(id);
+        }
+    }
+
+    /**
+     * Give the container back, or retire it together with the idle ones if there are no
+     * episodes left to claim.
+     * @param id
+     */
+    private void release(int id) {
+        List<Integer> retire = new ArrayList<>();
+        synchronized (this) {
+            if(claimed < totalEpisodes){
+                idle.addLast(id);
+                notifyAll();
+                return;
+            }
+            retire.add(id);
+            retire.addAll(idle);
+            idle.clear();
+            retired += retire.size();
+        }
+        for(int r : retire)
+            retire(r);
+    }
+
+    private void retireIdle() {
+        List<Integer> retire;
+        synchronized (this) {
+            retire = new ArrayList<>(idle);
+            idle.clear();
+            retired += retire.size();
+        }
+        for(int r : retire)
+            retire(r);
+    }
+
+    private void retire(int id) {
+        try {
+            learner.workerFinished();
+        } finally {
+            containers.get(id).getAgent().clear();
+        }
+    }
+
+    public synchronized int getClaimed() {
+        return claimed;
+    }
+
+    public synchronized int getRetired() {
+        return retired;
+    }
+}
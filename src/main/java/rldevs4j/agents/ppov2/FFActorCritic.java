@@ -0,0 +1,301 @@
+package rldevs4j.agents.ppov2;
+
+import org.deeplearning4j.api.storage.StatsStorage;
+import org.deeplearning4j.nn.api.OptimizationAlgorithm;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.GradientNormalization;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.gradient.DefaultGradient;
+import org.deeplearning4j.nn.gradient.Gradient;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.weights.WeightInit;
+import org.deeplearning4j.nn.workspace.LayerWorkspaceMgr;
+import org.deeplearning4j.ui.stats.StatsListener;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.learning.config.RmsProp;
+import org.nd4j.linalg.ops.transforms.Transforms;
+import rldevs4j.agents.utils.AgentUtils;
+import rldevs4j.agents.utils.distribution.Categorical;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Discrete actor and critic sharing a feed forward trunk, with a softmax policy head and a
+ * linear value head. A decision gets the action probabilities and the value from one forward
+ * pass, and a training step backpropagates the policy and value losses together.
+ * Use the instance as the actor and getCritic() as the critic of the same PPO agent.
+ */
+public class FFActorCritic implements DiscretePPOActor, PPOActorCritic {
+    private float entropyFactor;
+    private float epsilonClip;
+    private float valueFactor;
+    private ComputationGraph model;
+    private final ValueHead critic;
+    private float currentApproxKL;
+    private INDArray input;
+    private double lastValue;
+
+    public FFActorCritic(String modelPath) throws IOException {
+        this.loadModel(modelPath);
+        this.model.init();
+        this.critic = new ValueHead();
+    }
+
+    public FFActorCritic(ComputationGraph model, float entropyFactor, float epsilonClip, float valueFactor){
+        this.model = model;
+        this.model.init();
+        this.critic = new ValueHead();
+
+        this.entropyFactor = entropyFactor;
+        this.epsilonClip = epsilonClip;
+        this.valueFactor = valueFactor;
+    }
+
+    public FFActorCritic(int obsDim, int actionDim, Double learningRate, Double l2, float entropyFactor, float epsilonClip, float valueFactor, int hSize, Activation hact, StatsStorage statsStorage) {
+        ComputationGraphConfiguration conf = new NeuralNetConfiguration.Builder()
+                .optimizationAlgo(OptimizationAlgorithm.STOCHASTIC_GRADIENT_DESCENT)
+                .updater(new RmsProp(learningRate))
+                .weightInit(WeightInit.UNIFORM)
+                .gradientNormalization(GradientNormalization.ClipElementWiseAbsoluteValue)
+                .gradientNormalizationThreshold(0.5D)
+                .l2(l2)
+                .graphBuilder()
+                .addInputs("in")
+                .addLayer("h1", new DenseLayer.Builder().nIn(obsDim).nOut(hSize).activation(hact).build(), "in")
+                .addLayer("h2", new DenseLayer.Builder().nIn(hSize).nOut(hSize).activation(hact).build(), "h1")
+                .addLayer("policy", new DenseLayer.Builder().nIn(hSize).nOut(actionDim).activation(Activation.SOFTMAX).build(), "h2")
+                .addLayer("value", new DenseLayer.Builder().nIn(hSize).nOut(1).activation(Activation.IDENTITY).build(), "h2")
+                .setOutputs("policy", "value")
+                .build();
+
+        model = new ComputationGraph(conf);
+        model.init();
+        if(statsStorage!=null) {
+            this.model.setListeners(new StatsListener(statsStorage));
+        }
+        this.critic = new ValueHead();
+        this.entropyFactor = entropyFactor;
+        this.epsilonClip = epsilonClip;
+        this.valueFactor = valueFactor;
+    }
+
+    @Override
+    public void saveModel(String path) throws IOException {
+        File file = new File(path+"FFActorCritic_model");
+        this.model.save(file);
+    }
+
+    @Override
+    public void loadModel(String path) throws IOException {
+        File file = new File(path+"FFActorCritic_model");
+        this.model = ComputationGraph.load(file, true);
+    }
+
+    @Override
+    public INDArray[] output(INDArray obs, INDArray act) {
+        INDArray probs = this.model.output(obs)[0];
+
+        Categorical dist = new Categorical(probs);
+        INDArray sample = dist.sample();
+        INDArray logProbs = dist.logProb(act);
+        INDArray entropy = dist.entropy();
+        return new INDArray[]{sample, probs, logProbs, entropy};
+    }
+
+    @Override
+    public int action(INDArray obs) {
+        return action(obs, null);
+    }
+
+    @Override
+    public int action(INDArray obs, INDArray probs) {
+        // single observation input row, reused between decisions
+        if(input == null)
+            input = Nd4j.zeros(1, obs.length());
+        input.assign(obs);
+        try(MemoryWorkspace ws = AgentUtils.openDecisionWorkspace()){
+            INDArray[] output = this.model.output(false, ws, input);
+            // the value of the same forward pass, see lastValue()
+            lastValue = output[1].getDouble(0);
+            if(probs != null)
+                probs.assign(output[0]);
+            return Categorical.sampleIndex(output[0], Nd4j.getRandom());
+        }
+    }
+
+    @Override
+    public double lastValue() {
+        return lastValue;
+    }
+
+    @Override
+    public int[] actions(INDArray obs) {
+        return actions(obs, null);
+    }
+
+    @Override
+    public int[] actions(INDArray obs, INDArray probs) {
+        INDArray prob = this.model.output(obs)[0];
+        if(probs != null)
+            probs.assign(prob);
+        Categorical dist = new Categorical(prob);
+        return dist.sample().toIntVector();
+    }
+
+    @Override
+    public int actionMax(INDArray obs) {
+        INDArray prob = this.model.output(obs.reshape(new int[]{1, obs.columns()}))[0];
+        return prob.argMax(1).getInt(0);
+    }
+
+    private INDArray policyLoss(INDArray probs, INDArray actions, INDArray advantages, INDArray logProbOld){
+        INDArray logPi = Transforms.log(probs);
+        // actions are indices, spread the behaviour log probabilities over their columns
+        logProbOld = AgentUtils.scatter(Nd4j.zeros(logPi.shape()), actions, logProbOld);
+        INDArray ratio = Transforms.exp(logPi.sub(logProbOld), true);
+        INDArray clipAdv = ratio.dup();
+        AgentUtils.clamp(clipAdv, 1D-epsilonClip, 1D+epsilonClip);
+        clipAdv.muliColumnVector(advantages);
+        INDArray lossPerPoint = Transforms.min(ratio.mulColumnVector(advantages), clipAdv, true);
+        lossPerPoint.addiColumnVector(new Categorical(probs).entropy().mul(this.entropyFactor));
+        lossPerPoint.negi();
+        //Extra info
+        currentApproxKL = (logPi.sub(logProbOld)).mul(probs).sum(1).mean().getFloat(0);
+        return lossPerPoint;
+    }
+
+    @Override
+    public Gradient gradient(INDArray states , INDArray actions, INDArray advantages, INDArray probOld, INDArray logProbOld) {
+        return gradient(states, actions, advantages, probOld, logProbOld, null, null);
+    }
+
+    /**
+     * Gradient of the policy loss plus the squared error of the values to the returns,
+     * scaled by the value factor, from one forward and one backward pass. Without returns
+     * only the policy loss is used. The old values are not used, there is no value clipping.
+     */
+    @Override
+    public Gradient gradient(INDArray states, INDArray actions, INDArray advantages, INDArray probOld,
+                             INDArray logProbOld, INDArray oldValues, INDArray returns) {
+        Map<String, INDArray> activations = model.feedForward(new INDArray[]{states}, true, false);
+        INDArray probs = activations.get("policy");
+        INDArray values = activations.get("value");
+        INDArray policyLoss = policyLoss(probs, actions, advantages, logProbOld);
+        INDArray valueError = returns == null ?
+                Nd4j.zeros(values.shape()) : values.sub(returns.reshape(values.shape())).muli(2 * valueFactor);
+        Gradient g = model.backpropGradient(policyLoss, valueError);
+
+        ComputationGraphConfiguration cgConf = model.getConfiguration();
+        int iterationCount = cgConf.getIterationCount();
+        int epochCount = cgConf.getEpochCount();
+        this.model.getUpdater().update(g, iterationCount, epochCount, states.rows(), LayerWorkspaceMgr.noWorkspaces());
+        this.model.update(g);
+        this.model.clear();
+
+        return g;
+    }
+
+    @Override
+    public synchronized void applyGradient(INDArray gradient, int batchSize) {
+        model.params().subi(gradient.dup());
+    }
+
+    @Override
+    public synchronized INDArray getParams() {
+        return model.params();
+    }
+
+    @Override
+    public void setParams(INDArray p){
+        model.setParams(p.dup());
+    }
+
+    @Override
+    public ComputationGraph getModel() {
+        return model;
+    }
+
+    @Override
+    public PPOActor clone() {
+        return new FFActorCritic(model.clone(), entropyFactor, epsilonClip, valueFactor);
+    }
+
+    @Override
+    public PPOCritic getCritic() {
+        return critic;
+    }
+
+    @Override
+    public double getCurrentApproxKL() {
+        return currentApproxKL;
+    }
+
+    /**
+     * Critic side of the shared network. Its parameters are a view of the value layer inside
+     * the actor parameter vector, so syncing them again only copies the value head. It has no
+     * gradient of its own: the actor gradient already trains the value head.
+     */
+    private class ValueHead implements PPOCritic {
+
+        @Override
+        public void saveModel(String path) throws IOException {
+            // saved with the actor
+        }
+
+        @Override
+        public void loadModel(String path) throws IOException {
+            // loaded with the actor
+        }
+
+        @Override
+        public INDArray output(INDArray obs) {
+            return model.output(obs)[1];
+        }
+
+        @Override
+        public double value(INDArray obs) {
+            if(input == null)
+                input = Nd4j.zeros(1, obs.length());
+            input.assign(obs);
+            try(MemoryWorkspace ws = AgentUtils.openDecisionWorkspace()){
+                return model.output(false, ws, input)[1].getDouble(0);
+            }
+        }
+
+        @Override
+        public Gradient gradient(INDArray states, INDArray oldValues, INDArray returns) {
+            return new DefaultGradient(Nd4j.zeros(1, getParams().length()));
+        }
+
+        @Override
+        public void applyGradient(INDArray gradient, int batchSize) {
+            getParams().subi(gradient);
+        }
+
+        @Override
+        public INDArray getParams() {
+            return model.getLayer("value").params();
+        }
+
+        @Override
+        public void setParams(INDArray p) {
+            getParams().assign(p);
+        }
+
+        @Override
+        public ComputationGraph getModel() {
+            return model;
+        }
+
+        @Override
+        public PPOCritic clone() {
+            return ((FFActorCritic) FFActorCritic.this.clone()).getCritic();
+        }
+    }
+}
@@ -14,6 +14,7 @@ import org.deeplearning4j.nn.workspace.LayerWorkspaceMgr;
 import org.deeplearning4j.optimize.api.TrainingListener;
 import org.deeplearning4j.ui.stats.StatsListener;
 import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.indexing.BooleanIndexing;
@@ -33,6 +34,7 @@ public class FFCritic implements PPOCritic {
     private ComputationGraph model;
     private final double paramClamp = 0.5D;
     private float epsilonClip;
+    private INDArray input;
 
     public FFCritic(ComputationGraph model, float epsilonClip){
         this.model = model;
@@ -80,6 +82,17 @@ public class FFCritic implements PPOCritic {
         return model.output(obs)[0];
     }
 
+    @Override
+    public double value(INDArray obs) {
+        // single observation input row, reused between steps
+        if(input == null)
+            input = Nd4j.zeros(1, obs.length());
+        input.assign(obs);
+        try(MemoryWorkspace ws = AgentUtils.openDecisionWorkspace()){
+            return model.output(false, ws, input)[0].getDouble(0);
+        }
+    }
+
 //    public INDArray loss(INDArray states, INDArray oldValues, INDArray returns){
 //        model.fit(new INDArray[]{states}, new INDArray[]{returns});
 ////        INDArray v = model.output(states)[0];
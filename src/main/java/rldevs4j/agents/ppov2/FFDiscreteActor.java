@@ -12,8 +12,9 @@ import org.deeplearning4j.nn.weights.WeightInit;
 import org.deeplearning4j.nn.workspace.LayerWorkspaceMgr;
 import org.deeplearning4j.ui.stats.StatsListener;
 import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
 import org.nd4j.linalg.api.ndarray.INDArray;
-
+import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.learning.config.RmsProp;
 import org.nd4j.linalg.learning.config.Sgd;
 import org.nd4j.linalg.ops.transforms.Transforms;
@@ -28,6 +29,7 @@ public class FFDiscreteActor implements DiscretePPOActor {
     private float epsilonClip;
     private ComputationGraph model;
     private float currentApproxKL;
+    private INDArray input;
 
     public FFDiscreteActor(String modelPath) throws IOException {
         this.loadModel(modelPath);
@@ -94,11 +96,37 @@ public class FFDiscreteActor implements DiscretePPOActor {
 
     @Override
     public int action(INDArray obs) {
-        INDArray prob = this.model.output(obs.reshape(new int[]{1, obs.columns()}))[0];
-//        System.out.println(prob);
-//        Logger.getGlobal().info(prob.toString());
-        Categorical dist = new Categorical(prob, null);
-        return dist.sample().getInt(0);
+        return action(obs, null);
+    }
+
+    @Override
+    public int action(INDArray obs, INDArray probs) {
+        // single observation input row, reused between decisions
+        if(input == null)
+            input = Nd4j.zeros(1, obs.length());
+        input.assign(obs);
+        try(MemoryWorkspace ws = AgentUtils.openDecisionWorkspace()){
+            INDArray prob = this.model.output(false, ws, input)[0];
+//            System.out.println(prob);
+//            Logger.getGlobal().info(prob.toString());
+            if(probs != null)
+                probs.assign(prob);
+            return Categorical.sampleIndex(prob, Nd4j.getRandom());
+        }
+    }
+
+    @Override
+    public int[] actions(INDArray obs) {
+        return actions(obs, null);
+    }
+
+    @Override
+    public int[] actions(INDArray obs, INDArray probs) {
+        INDArray prob = this.model.output(obs)[0];
+        if(probs != null)
+            probs.assign(prob);
+        Categorical dist = new Categorical(prob);
+        return dist.sample().toIntVector();
     }
 
     @Override
@@ -107,29 +135,33 @@ public class FFDiscreteActor implements DiscretePPOActor {
         return prob.argMax(1).getInt(0);
     }
 
-    private INDArray loss(INDArray states , INDArray actions, INDArray advantages, INDArray probOld, INDArray logProbOld){
-        //output[0] -> sample, output[1] -> probs, output[2] -> logProb, output[3] -> entropy
-        INDArray[] output = this.output(states, actions);
-//        INDArray logPi = output[2];
-        INDArray logPi = Transforms.log(output[1]);
+    /**
+     * Surrogate loss per point of the policy output of the training forward pass.
+     */
+    private INDArray loss(INDArray probs, INDArray actions, INDArray advantages, INDArray probOld, INDArray logProbOld){
+        INDArray entropy = new Categorical(probs).entropy();
+        INDArray logPi = Transforms.log(probs);
+        // actions are indices, spread the behaviour log probabilities over their columns
+        logProbOld = AgentUtils.scatter(Nd4j.zeros(logPi.shape()), actions, logProbOld);
         INDArray ratio = Transforms.exp(logPi.sub(logProbOld), true);
 //        INDArray ratio = Transforms.exp(logPi.sub(Transforms.log(probOld)), true);
         INDArray clipAdv = ratio.dup();
         AgentUtils.clamp(clipAdv, 1D-epsilonClip, 1D+epsilonClip);
         clipAdv.muliColumnVector(advantages);
         INDArray lossPerPoint = Transforms.min(ratio.mulColumnVector(advantages), clipAdv, true);
-        lossPerPoint.addiColumnVector(output[3].mul(this.entropyFactor));
+        lossPerPoint.addiColumnVector(entropy.mul(this.entropyFactor));
         lossPerPoint.negi();
         //Extra info
-        currentApproxKL = (logPi.sub(logProbOld)).mul(output[1]).sum(1).mean().getFloat(0);
+        currentApproxKL = (logPi.sub(logProbOld)).mul(probs).sum(1).mean().getFloat(0);
         return lossPerPoint;
     }
 
     @Override
     public Gradient gradient(INDArray states , INDArray actions, INDArray advantages, INDArray probOld, INDArray logProbOld) {
-        INDArray lossPerPoint = loss(states, actions, advantages, probOld, logProbOld);
-
-        model.feedForward(new INDArray[]{states}, true, false);
+        // one training forward pass: the loss comes from its output and is backpropagated from there
+        INDArray probs = model.feedForward(new INDArray[]{states}, true, false)
+                .get(model.getConfiguration().getNetworkOutputs().get(0));
+        INDArray lossPerPoint = loss(probs, actions, advantages, probOld, logProbOld);
         Gradient g = model.backpropGradient(lossPerPoint);
 
         ComputationGraphConfiguration cgConf = model.getConfiguration();
@@ -15,7 +15,9 @@ import org.deeplearning4j.nn.workspace.LayerWorkspaceMgr;
 import org.deeplearning4j.optimize.api.TrainingListener;
 import org.deeplearning4j.ui.stats.StatsListener;
 import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.indexing.BooleanIndexing;
 import org.nd4j.linalg.indexing.conditions.Conditions;
 import org.nd4j.linalg.learning.config.Adam;
@@ -31,6 +33,8 @@ public class LSTMCritic implements PPOCritic {
     private ComputationGraph model;
     private final double paramClamp = 1D;
     private float epsilonClip;
+    private INDArray input;
+    private INDArray inputRow;
 
     public LSTMCritic(ComputationGraph model){
         this.model = model;
@@ -78,6 +82,19 @@ public class LSTMCritic implements PPOCritic {
         return model.output(obs.reshape(new int[]{obs.rows(), obs.columns(), 1}))[0];
     }
 
+    @Override
+    public double value(INDArray obs) {
+        // single time step input, reused between steps and written through a row view
+        if(input == null){
+            input = Nd4j.zeros(1, obs.length(), 1);
+            inputRow = input.reshape(1, obs.length());
+        }
+        inputRow.assign(obs);
+        try(MemoryWorkspace ws = AgentUtils.openDecisionWorkspace()){
+            return model.output(false, ws, input)[0].getDouble(0);
+        }
+    }
+
     public INDArray loss(INDArray states, INDArray oldValues, INDArray returns){
         INDArray v = model.output(states)[0];
         INDArray vClipped = oldValues.add(AgentUtils.clamp(v.dup().subi(oldValues), epsilonClip, epsilonClip));
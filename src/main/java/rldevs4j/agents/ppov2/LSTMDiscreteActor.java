@@ -16,6 +16,7 @@ import org.deeplearning4j.nn.workspace.LayerWorkspaceMgr;
 import org.deeplearning4j.optimize.api.TrainingListener;
 import org.deeplearning4j.ui.stats.StatsListener;
 import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.api.rng.Random;
 import org.nd4j.linalg.factory.Nd4j;
@@ -37,6 +38,8 @@ public class LSTMDiscreteActor implements DiscretePPOActor {
     private ComputationGraph model;
     private Random rnd;
     private float currentApproxKL;
+    private INDArray input;
+    private INDArray inputRow;
 
     public LSTMDiscreteActor(String modelPath) throws IOException {
         this.rnd = Nd4j.getRandom();
@@ -104,9 +107,37 @@ public class LSTMDiscreteActor implements DiscretePPOActor {
 
     @Override
     public int action(INDArray obs) {
-        INDArray prob = this.model.output(obs.reshape(new int[]{1, obs.columns(), 1}))[0];
-        Categorical dist = new Categorical(prob, null);
-        return dist.sample().getInt(0);
+        return action(obs, null);
+    }
+
+    @Override
+    public int action(INDArray obs, INDArray probs) {
+        // single time step input, reused between decisions and written through a row view
+        if(input == null){
+            input = Nd4j.zeros(1, obs.length(), 1);
+            inputRow = input.reshape(1, obs.length());
+        }
+        inputRow.assign(obs);
+        try(MemoryWorkspace ws = AgentUtils.openDecisionWorkspace()){
+            INDArray prob = this.model.output(false, ws, input)[0];
+            if(probs != null)
+                probs.assign(prob);
+            return Categorical.sampleIndex(prob, Nd4j.getRandom());
+        }
+    }
+
+    @Override
+    public int[] actions(INDArray obs) {
+        return actions(obs, null);
+    }
+
+    @Override
+    public int[] actions(INDArray obs, INDArray probs) {
+        INDArray prob = this.model.output(obs.reshape(new int[]{obs.rows(), obs.columns(), 1}))[0];
+        if(probs != null)
+            probs.assign(prob);
+        Categorical dist = new Categorical(prob);
+        return dist.sample().toIntVector();
     }
 
     @Override
@@ -116,10 +147,16 @@ public class LSTMDiscreteActor implements DiscretePPOActor {
         return idx;
     }
 
-    private INDArray loss(INDArray states , INDArray actions, INDArray advantages, INDArray probOld, INDArray logProbOld){
-        //output[0] -> sample, output[1] -> probs, output[2] -> logProb, output[3] -> entropy
-        INDArray[] output = this.output(states, actions);
-        INDArray logPi = Transforms.log(output[1]);
+    /**
+     * Surrogate loss per point of the policy output of the training forward pass.
+     */
+    private INDArray loss(INDArray probs, INDArray actions, INDArray advantages, INDArray probOld, INDArray logProbOld){
+        Categorical dist = new Categorical(probs);
+        INDArray logPi = Transforms.log(probs);
+        INDArray logProbTaken = dist.logProb(actions);
+        // actions are indices, spread the behaviour log probabilities over their columns
+        INDArray logProbOldTaken = logProbOld;
+        logProbOld = AgentUtils.scatter(Nd4j.zeros(logPi.shape()), actions, logProbOld);
         INDArray ratio = Transforms.exp(logPi.sub(logProbOld));
 //        INDArray ratio = Transforms.exp(Transforms.log(output[1]).sub(logProbOld));
         INDArray clipAdv = ratio.dup();
@@ -127,17 +164,19 @@ public class LSTMDiscreteActor implements DiscretePPOActor {
         clipAdv.muliColumnVector(advantages);
         INDArray lossPerPoint = Transforms.min(ratio.mulColumnVector(advantages), clipAdv);
         lossPerPoint.negi();
-        lossPerPoint.addiColumnVector(output[3].mul(this.entropyFactor));
+        lossPerPoint.addiColumnVector(dist.entropy().mul(this.entropyFactor));
         //Extra info
-        currentApproxKL = (logProbOld.sub(output[2])).mean().getFloat(0);
+        currentApproxKL = logProbOldTaken.sub(logProbTaken).sumNumber().floatValue() / logPi.length();
         return lossPerPoint;
     }
 
     @Override
     public Gradient gradient(INDArray states, INDArray actions, INDArray advantages, INDArray probOld, INDArray logProbOld) {
         model.rnnClearPreviousState();
-        INDArray lossPerPoint = loss(states, actions, advantages, probOld, logProbOld);
-        model.feedForward(new INDArray[]{states.reshape(new int[]{states.rows(), states.columns(), 1})}, true, false);
+        // one training forward pass: the loss comes from its output and is backpropagated from there
+        INDArray probs = model.feedForward(new INDArray[]{states.reshape(new int[]{states.rows(), states.columns(), 1})}, true, false)
+                .get(model.getConfiguration().getNetworkOutputs().get(0));
+        INDArray lossPerPoint = loss(probs, actions, advantages, probOld, logProbOld);
         Gradient g = model.backpropGradient(lossPerPoint);
         model.setScore(lossPerPoint.meanNumber().doubleValue());
         model.rnnClearPreviousState();
@@ -0,0 +1,18 @@
+package rldevs4j.agents.ppov2;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import rldevs4j.agents.utils.inference.DiscreteDecision;
+
+/**
+ * Learner running in the same process as its workers. Adds the SYNC, AVERAGING and
+ * TRAJECTORY hand-offs and the central inference service to the ASYNC ones. Implemented by PPO.
+ */
+public interface LocalPPOLearner extends PPOLearner {
+    public void submitRollout(Rollout rollout);
+    public void enqueueTrajectory(Trajectory trajectory);
+    public void submitParams(int workerId, INDArray[] params, int steps);
+    public int getAveragingInterval();
+    public boolean isCentralInference();
+    public DiscreteDecision inferDiscreteAction(INDArray obs);
+    public float[] inferContinuousAction(INDArray obs);
+}
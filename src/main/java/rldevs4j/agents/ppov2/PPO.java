@@ -4,21 +4,47 @@ package rldevs4j.agents.ppov2;
 import org.deeplearning4j.nn.gradient.Gradient;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.primitives.Triple;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import rldevs4j.agents.utils.AdvantageBuffers;
+import rldevs4j.agents.utils.checkpoint.AsyncCheckpointer;
+import rldevs4j.agents.utils.compression.CompressedGradient;
+import rldevs4j.agents.utils.compression.GradientCompressor;
+import rldevs4j.agents.utils.concurrent.EpisodeAggregator;
+import rldevs4j.agents.utils.concurrent.GradientAggregator;
+import rldevs4j.agents.utils.concurrent.StalenessFilter;
+import rldevs4j.agents.utils.concurrent.ThreadBudget;
+import rldevs4j.agents.utils.metrics.Counter;
+import rldevs4j.agents.utils.metrics.Histogram;
+import rldevs4j.agents.utils.metrics.MetricsExport;
+import rldevs4j.agents.utils.metrics.MetricsRegistry;
+import rldevs4j.agents.utils.concurrent.UpdateQueue;
+import rldevs4j.agents.ppov2.remote.LearnerServer;
+import rldevs4j.agents.ppov2.remote.SharedParamsWriter;
+import rldevs4j.agents.utils.distribution.Categorical;
+import rldevs4j.agents.utils.inference.DiscreteDecision;
+import rldevs4j.agents.utils.inference.InferenceService;
 import rldevs4j.base.agent.preproc.Preprocessing;
-import rldevs4j.base.env.Environment;
 import rldevs4j.base.env.RLEnvironment;
 import rldevs4j.base.env.factory.EnvironmentFactory;
 import rldevs4j.experiment.ExperimentResult;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -28,24 +54,97 @@ import java.util.logging.Logger;
  * container enviroments.
  * @author Ezequiel Beccaría
  */
-public class PPO {
+public class PPO implements LocalPPOLearner {
+    /**
+     * ASYNC: each worker runs the PPO epochs on its own copy and queues the resulting gradients.
+     * SYNC: workers hand their rollouts over at a barrier and the global networks run one
+     * batched update over all of them before the parameters are broadcast.
+     * TRAJECTORY: workers only act and queue their trajectories with the behaviour policy
+     * outputs; the learner estimates the advantages with the global critic and runs the
+     * epochs over the trajectories of several workers at once.
+     * AVERAGING: workers train their own copies and every AVERAGING_INTERVAL updates the
+     * learner averages their parameters at a barrier and broadcasts the result.
+     */
+    public enum Mode {ASYNC, SYNC, TRAJECTORY, AVERAGING}
 
     private final EnvironmentFactory envFactory;
+    private final Mode mode;
     private int modelBackupInterval = 1000;
+    private final int checkpointKeep;
+    private AsyncCheckpointer checkpointer;
+    private PPOActor checkpointActor;
+    private PPOCritic checkpointCritic;
     private String workingPath;
     private PPOActor actor;
     private PPOCritic critic;
     private float[][] actionSpace;
-    private final ConcurrentLinkedQueue<Triple<INDArray[],Integer, ComputationGraph[]>> queue; //gradients-batchsize
+    private UpdateQueue<QueuedGradient> queue;
+    private final int queueCapacity;
+    private final UpdateQueue.Policy queuePolicy;
+    private final int aggregationMaxGradients;
+    private final int aggregationWindowMs;
+    private GradientAggregator aggregator;
+    private final StalenessFilter.Policy stalenessPolicy;
+    private final int maxStaleness;
+    private StalenessFilter stalenessFilter;
     private final List<PPOThread> workersThreads;
+    private final AtomicInteger activeWorkers;
+    private final ConcurrentLinkedQueue<Rollout> pendingRollouts;
+    private final AtomicReference<ParamsSnapshot> paramsSnapshot;
+    private final String sharedParamsFile;
+    private final int remoteAcceptTimeoutMs;
+    private SharedParamsWriter sharedParams;
+    private Phaser rolloutBarrier;
+    private PPOActor learnerActor;
+    private PPOCritic learnerCritic;
+    private PPOOptimizer optimizer;
+    private AdvantageBuffers advantageBuffers;
+    private UpdateQueue<Trajectory> trajectories;
+    private final ConcurrentLinkedQueue<INDArray[]> pendingParams;
+    private final int averagingInterval;
+    private final double outerLr;
+    private final double outerMomentum;
+    private INDArray[] outerVelocity;
+    private final int trajectoryBatch;
+    private final boolean centralInference;
+    private final int inferenceBatchSize;
+    private final int inferenceMaxWaitMicros;
+    private final boolean threadBudgetEnabled;
+    private final int threadBudgetCores;
+    private volatile ThreadBudget threadBudget;
+    private int serviceThreadCount;
+    private PPOActor inferenceActor;
+    private long inferenceParamsVersion;
+    private InferenceService<DiscreteDecision> discreteInference;
+    private InferenceService<float[]> continuousInference;
     private final float discountFactor;
     private final float lambdaGae;
     private final int horizon;
-    private final int epochs;
-    private final float targetKl;
     private final Preprocessing preprocessing;
     
     private final int episodesPerWorker;
+    private final boolean workStealing;
+    private final boolean elastic;
+    private final int elasticIntervalMs;
+    private WorkerController workerController;
+    private EpisodeBudget episodeBudget;
+    private ExecutorService workersExecutor;
+    private CountDownLatch workersDone;
+    private final AtomicInteger nextWorkerId;
+    private final MetricsRegistry metrics;
+    private final Counter stepCounter;
+    private final Counter gradientsEnqueued;
+    private final Counter gradientsApplied;
+    private final Counter denseGradientBytes;
+    private final Counter compressedGradientBytes;
+    private final Histogram applyLatency;
+    private MetricsExport metricsExport;
+    private EpisodeAggregator statistics;
+    private final int statisticsCapacity;
+    private final Map<String,Object> params;
+    private long lastAdjustNanos;
+    private long lastAdjustSteps;
+    private int totalEpisodes;
     private final double episodeMaxSimTime;
 
     private final Logger logger;
@@ -63,16 +162,62 @@ public class PPO {
         this.actor = actor;
         this.critic = critic;
         this.workersThreads = new ArrayList<>();
+        this.activeWorkers = new AtomicInteger(0);
+        this.pendingRollouts = new ConcurrentLinkedQueue<>();
+        this.pendingParams = new ConcurrentLinkedQueue<>();
+        this.paramsSnapshot = new AtomicReference<>();
         this.envFactory = envFactory;
         this.preprocessing = preprocessing;
         this.workingPath = (String) params.getOrDefault("RESULTS_FILE_PATH", "./");
+        this.checkpointKeep = (int) params.getOrDefault("CHECKPOINT_KEEP", 3);
         this.discountFactor = (float) params.getOrDefault("DISCOUNT_RATE", 0.99D);
         this.lambdaGae = (float) params.getOrDefault("LAMBDA_GAE", 0.96D);
         this.horizon = (int) params.getOrDefault("HORIZON", 100);
-        this.epochs = (int) params.getOrDefault("EPOCHS", 100);
-        this.targetKl = (float) params.getOrDefault("TARGET_KL", 100);
-        this.queue = new ConcurrentLinkedQueue();
+        this.mode = Mode.valueOf((String) params.getOrDefault("TRAINING_MODE", "ASYNC"));
+        this.queueCapacity = (int) params.getOrDefault("QUEUE_CAPACITY", 100);
+        this.queuePolicy = UpdateQueue.Policy.valueOf((String) params.getOrDefault("QUEUE_POLICY", "BLOCK"));
+        this.aggregationMaxGradients = (int) params.getOrDefault("AGGREGATION_MAX_GRADIENTS", 1);
+        this.aggregationWindowMs = (int) params.getOrDefault("AGGREGATION_WINDOW_MS", 0);
+        this.stalenessPolicy = StalenessFilter.Policy.valueOf((String) params.getOrDefault("STALENESS_POLICY", "ACCEPT"));
+        this.maxStaleness = (int) params.getOrDefault("MAX_STALENESS", 10);
+        this.trajectoryBatch = (int) params.getOrDefault("TRAJECTORY_BATCH", 0);
+        this.averagingInterval = (int) params.getOrDefault("AVERAGING_INTERVAL", 4);
+        this.outerLr = (double) params.getOrDefault("OUTER_LR", 1D);
+        this.outerMomentum = (double) params.getOrDefault("OUTER_MOMENTUM", 0D);
+        this.centralInference = (boolean) params.getOrDefault("CENTRAL_INFERENCE", false);
+        this.inferenceBatchSize = (int) params.getOrDefault("INFERENCE_BATCH_SIZE", 0);
+        this.inferenceMaxWaitMicros = (int) params.getOrDefault("INFERENCE_MAX_WAIT_US", 500);
+        this.threadBudgetEnabled = (boolean) params.getOrDefault("THREAD_BUDGET", true);
+        this.threadBudgetCores = (int) params.getOrDefault("THREAD_BUDGET_CORES", Runtime.getRuntime().availableProcessors());
+        this.sharedParamsFile = (String) params.get("SHARED_PARAMS_FILE");
+        this.remoteAcceptTimeoutMs = (int) params.getOrDefault("REMOTE_ACCEPT_TIMEOUT_MS", 300000);
         this.episodesPerWorker = (int) params.getOrDefault("EPISODES_WORKER", 10);
+        this.workStealing = (boolean) params.getOrDefault("WORK_STEALING", false);
+        this.elastic = (boolean) params.getOrDefault("ELASTIC", false);
+        // both schedule the shared episodes, an elastic pool is made of worker threads
+        if(elastic && workStealing)
+            throw new IllegalArgumentException("ELASTIC and WORK_STEALING cannot be combined.");
+        // the pool is sized from the learner queue depth, the barrier modes have no queue
+        if(elastic && (mode == Mode.SYNC || mode == Mode.AVERAGING))
+            throw new IllegalArgumentException("ELASTIC is only supported by the ASYNC and TRAJECTORY modes.");
+        this.elasticIntervalMs = (int) params.getOrDefault("ELASTIC_INTERVAL_MS", 5000);
+        this.workerController = new QueueDepthController(
+                (int) params.getOrDefault("MIN_WORKERS", 1),
+                (int) params.getOrDefault("MAX_WORKERS", Runtime.getRuntime().availableProcessors()),
+                (double) params.getOrDefault("ELASTIC_LOW_WATERMARK", 0.1D),
+                (double) params.getOrDefault("ELASTIC_HIGH_WATERMARK", 0.5D));
+        this.nextWorkerId = new AtomicInteger(0);
+        this.metrics = new MetricsRegistry((String) params.getOrDefault("METRICS_NAME", "ppo"));
+        this.stepCounter = metrics.counter("env_steps");
+        this.gradientsEnqueued = metrics.counter("gradients_enqueued");
+        this.gradientsApplied = metrics.counter("gradients_applied");
+        this.denseGradientBytes = metrics.counter("gradient_dense_bytes");
+        this.compressedGradientBytes = metrics.counter("gradient_compressed_bytes");
+        this.applyLatency = metrics.histogram("apply_latency_ns");
+        metrics.gauge("queue_depth", this::getQueueDepth);
+        metrics.gauge("active_workers", () -> activeWorkers.get());
+        this.statisticsCapacity = (int) params.getOrDefault("STATISTICS_BUFFER", 1024);
+        this.params = params;
         this.episodeMaxSimTime = (double) params.getOrDefault("SIMULATION_TIME", 3000);
         this.actionSpace = (float[][]) params.get("ACTION_SPACE");
         this.debug = (boolean) params.getOrDefault("DEBUG", false);
@@ -80,8 +225,351 @@ public class PPO {
     }
     
 //    public synchronized void enqueueGradient(Gradient[] gradient, int steps, ComputationGraph c){
-    public synchronized void enqueueGradient(INDArray[] gradient, int steps){
-        queue.add(new Triple<>(gradient, steps, null));
+    /**
+     * Queue a worker gradient for the learner. Depending on the queue policy the calling
+     * worker waits while the queue is full or the oldest queued gradient is discarded.
+     * @param gradient
+     * @param steps
+     * @param version version of the parameters the gradient was computed with
+     */
+    @Override
+    public void enqueueGradient(INDArray[] gradient, int steps, long version){
+        stepCounter.add(steps);
+        gradientsEnqueued.inc();
+        try {
+            queue.put(new QueuedGradient(gradient, steps, version));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queue a compressed worker gradient, decompressed by the learner when applied.
+     * @param gradient
+     * @param steps
+     * @param version
+     */
+    @Override
+    public void enqueueCompressedGradient(CompressedGradient[] gradient, int steps, long version){
+        for(CompressedGradient g : gradient){
+            denseGradientBytes.add(g.getDenseBytes());
+            compressedGradientBytes.add(g.getCompressedBytes());
+        }
+        stepCounter.add(steps);
+        gradientsEnqueued.inc();
+        try {
+            queue.put(new QueuedGradient(gradient, steps, version));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return dense over compressed size of the compressed gradients received, 1 if none
+     */
+    public double getCompressionRatio(){
+        long compressed = compressedGradientBytes.get();
+        return compressed == 0L ? 1D : (double) denseGradientBytes.get() / compressed;
+    }
+
+    /**
+     * Called by each worker thread when it has run all its episodes. When the last
+     * worker finishes the queue is closed, which wakes up and ends the learner.
+     */
+    @Override
+    public void workerFinished(){
+        if(usesBarrier())
+            rolloutBarrier.arriveAndDeregister();
+        if(activeWorkers.decrementAndGet() == 0) {
+            queue.close();
+            if(trajectories != null)
+                trajectories.close();
+            workersDone.countDown();
+            if(discreteInference != null)
+                discreteInference.shutdown();
+            if(continuousInference != null)
+                continuousInference.shutdown();
+        }
+    }
+
+    @Override
+    public boolean isCentralInference(){
+        return centralInference;
+    }
+
+    /**
+     * Central inference. Sample a discrete action batched together with the other workers' observations.
+     * @param obs
+     * @return the action with the probabilities and log probability it was sampled with
+     */
+    @Override
+    public DiscreteDecision inferDiscreteAction(INDArray obs){
+        return discreteInference.act(obs);
+    }
+
+    /**
+     * Central inference. Sample a continuous action batched together with the other workers' observations.
+     * @param obs
+     * @return
+     */
+    @Override
+    public float[] inferContinuousAction(INDArray obs){
+        return continuousInference.act(obs);
+    }
+
+    /**
+     * Create the inference service, which owns its own copy of the actor and refreshes it
+     * from the published snapshots between batches.
+     * @param workers
+     */
+    private void createInferenceService(int workers){
+        int batchSize = inferenceBatchSize > 0 ? inferenceBatchSize : workers;
+        inferenceActor = actor.clone();
+        inferenceParamsVersion = paramsSnapshot.get().getVersion();
+        if(inferenceActor instanceof DiscretePPOActor){
+            discreteInference = new InferenceService<>(obs -> {
+                syncInferenceActor();
+                INDArray probs = Nd4j.create(obs.rows(), actionSpace.length);
+                int[] actions = ((DiscretePPOActor) inferenceActor).actions(obs, probs);
+                List<DiscreteDecision> decisions = new ArrayList<>(actions.length);
+                for(int i=0;i<actions.length;i++){
+                    float[] p = probs.getRow(i).toFloatVector();
+                    decisions.add(new DiscreteDecision(actions[i], p, Categorical.logProb(p[actions[i]])));
+                }
+                return decisions;
+            }, batchSize, inferenceMaxWaitMicros);
+        }else{
+            continuousInference = new InferenceService<>(obs -> {
+                syncInferenceActor();
+                return Arrays.asList(((ContinuosPPOActor) inferenceActor).actions(obs));
+            }, batchSize, inferenceMaxWaitMicros);
+        }
+    }
+
+    private void syncInferenceActor(){
+        ParamsSnapshot snapshot = paramsSnapshot.get();
+        if(snapshot.getVersion() != inferenceParamsVersion){
+            inferenceActor.getParams().assign(snapshot.getParams()[1]);
+            inferenceParamsVersion = snapshot.getVersion();
+        }
+    }
+
+    /**
+     * SYNC mode. Hand a worker rollout over and wait until every active worker has done the
+     * same and the centralized update has been applied.
+     * @param rollout
+     */
+    @Override
+    public void submitRollout(Rollout rollout){
+        stepCounter.add(rollout.size());
+        pendingRollouts.add(rollout);
+        rolloutBarrier.arriveAndAwaitAdvance();
+    }
+
+    /**
+     * SYNC mode. Run the PPO epochs over the rollouts of all workers as a single batch.
+     * Rollouts are ordered by worker id, so the update does not depend on arrival order.
+     */
+    private void centralizedUpdate(){
+        List<Rollout> rollouts = new ArrayList<>();
+        Rollout r;
+        while((r = pendingRollouts.poll()) != null)
+            rollouts.add(r);
+        if(rollouts.isEmpty())
+            return;
+        long start = System.nanoTime();
+        rollouts.sort(Comparator.comparingInt(Rollout::getWorkerId));
+        Rollout batch = Rollout.concat(rollouts);
+        syncLearnerNetworks();
+        applyGradient(optimizer.update(learnerActor, learnerCritic, batch), batch.size());
+        publishParams();
+        gradientsApplied.add(rollouts.size());
+        applyLatency.record(System.nanoTime() - start);
+        if(debug)
+            logger.log(Level.INFO, "Centralized update over {0} rollouts ({1} steps) in {2} ms",
+                    new Object[]{rollouts.size(), batch.size(), (System.nanoTime() - start) / 1e6});
+    }
+
+    /**
+     * Copy the global parameters into the learner networks (SYNC and TRAJECTORY modes).
+     */
+    private void syncLearnerNetworks(){
+        if(!sharesCritic())
+            learnerCritic.getParams().assign(critic.getParams());
+        learnerActor.getParams().assign(actor.getParams());
+    }
+
+    /**
+     * @return true if the critic is the value head of the actor network (PPOActorCritic).
+     * Its parameters are then a view inside the actor ones: the critic slot of parameters
+     * and gradients keeps its place but is neither trained, applied nor copied into a network,
+     * the actor slot already covers it.
+     */
+    private boolean sharesCritic(){
+        return actor instanceof PPOActorCritic;
+    }
+
+    private boolean usesBarrier(){
+        return mode == Mode.SYNC || mode == Mode.AVERAGING;
+    }
+
+    /**
+     * Hand the local parameters over to the learner (AVERAGING mode). Blocks until every
+     * worker has done the same and the averaged parameters have been published.
+     * @param workerId
+     * @param params {critic params, actor params}
+     * @param steps steps trained since the previous averaging
+     */
+    @Override
+    public void submitParams(int workerId, INDArray[] params, int steps){
+        stepCounter.add(steps);
+        pendingParams.add(params);
+        rolloutBarrier.arriveAndAwaitAdvance();
+    }
+
+    @Override
+    public int getAveragingInterval(){
+        return averagingInterval;
+    }
+
+    /**
+     * Average the submitted worker parameters and move the global ones towards the average
+     * with the outer optimizer: v = OUTER_MOMENTUM * v + (average - global),
+     * global += OUTER_LR * v. With the defaults (1, 0) the global parameters become the
+     * average.
+     */
+    private void averageParams(){
+        List<INDArray[]> submitted = new ArrayList<>();
+        INDArray[] p;
+        while((p = pendingParams.poll()) != null)
+            submitted.add(p);
+        if(submitted.isEmpty())
+            return;
+        long start = System.nanoTime();
+        double[] weights = new double[submitted.size()];
+        Arrays.fill(weights, 1D / submitted.size());
+        INDArray[] average = aggregator.reduce(submitted, weights);
+        INDArray[] global = new INDArray[]{critic.getParams(), actor.getParams()};
+        if(outerVelocity == null)
+            outerVelocity = new INDArray[]{Nd4j.zeros(global[0].shape()), Nd4j.zeros(global[1].shape())};
+        // a shared critic is moved with the actor slot
+        for(int n=sharesCritic() ? 1 : 0;n<global.length;n++){
+            outerVelocity[n].muli(outerMomentum).addi(average[n]).subi(global[n]);
+            Nd4j.getBlasWrapper().level1().axpy(global[n].length(), outerLr, outerVelocity[n], global[n]);
+        }
+        publishParams();
+        aggregator.record(submitted.size(), 0, System.nanoTime() - start);
+        applyLatency.record(System.nanoTime() - start);
+        if(debug)
+            logger.log(Level.INFO, "Averaged the parameters of {0} workers in {1} ms",
+                    new Object[]{submitted.size(), (System.nanoTime() - start) / 1e6});
+    }
+
+    /**
+     * Queue a worker trajectory for the learner (TRAJECTORY mode).
+     * @param trajectory
+     */
+    @Override
+    public void enqueueTrajectory(Trajectory trajectory){
+        stepCounter.add(trajectory.size());
+        try {
+            trajectories.put(trajectory);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * TRAJECTORY mode update. The advantages of the trajectories are estimated together,
+     * with one pass of the global critic, and the epochs run over all of them; the clipped
+     * ratio against the behaviour policy outputs bounds the update for trajectories
+     * collected with older parameters. Trajectories the staleness filter drops are skipped.
+     * @param window
+     */
+    private void trajectoryUpdate(List<Trajectory> window){
+        long start = System.nanoTime();
+        long version = paramsSnapshot.get().getVersion();
+        syncLearnerNetworks();
+        List<Trajectory> kept = new ArrayList<>(window.size());
+        int steps = 0;
+        for(Trajectory t : window){
+            if(stalenessFilter.weight(version - t.getVersion()) == 0D)
+                continue;
+            kept.add(t);
+            steps += t.size();
+        }
+        if(kept.isEmpty())
+            return;
+        int n = kept.size();
+        INDArray[] states = new INDArray[n];
+        INDArray[] actions = new INDArray[n];
+        INDArray[] probs = new INDArray[n];
+        INDArray[] logProbs = new INDArray[n];
+        double[] rewards = new double[steps];
+        double[] mask = new double[steps];
+        int[] lengths = new int[n];
+        int offset = 0;
+        for(int i=0;i<n;i++){
+            Trajectory t = kept.get(i);
+            states[i] = t.getStates();
+            actions[i] = t.getActions();
+            probs[i] = t.getProbs();
+            logProbs[i] = t.getLogProbs();
+            lengths[i] = t.size();
+            System.arraycopy(t.getRewards(), 0, rewards, offset, lengths[i]);
+            System.arraycopy(t.getMask(), 0, mask, offset, lengths[i]);
+            offset += lengths[i];
+        }
+        INDArray batchStates = n == 1 ? states[0] : Nd4j.concat(0, states);
+        INDArray values = learnerCritic.output(batchStates);
+        INDArray[] gae = advantageBuffers.gae(values, rewards, mask, lengths, discountFactor, lambdaGae);
+        Rollout batch = new Rollout(-1, batchStates, n == 1 ? actions[0] : Nd4j.concat(0, actions), gae[0], gae[1],
+                n == 1 ? probs[0] : Nd4j.concat(0, probs), n == 1 ? logProbs[0] : Nd4j.concat(0, logProbs), values);
+        applyGradient(optimizer.update(learnerActor, learnerCritic, batch), batch.size());
+        publishParams();
+        long nanos = System.nanoTime() - start;
+        aggregator.record(n, batch.size(), nanos);
+        gradientsApplied.add(n);
+        applyLatency.record(nanos);
+        if(debug)
+            logger.log(Level.INFO, "Trajectory update over {0} trajectories ({1} steps) in {2} ms",
+                    new Object[]{n, batch.size(), nanos / 1e6});
+    }
+
+    /**
+     * Reduce a window of queued gradients into one update and apply it. Each gradient is
+     * weighted by its step count and by the staleness policy; dropped gradients are skipped.
+     * @param window
+     */
+    private void applyGradients(List<QueuedGradient> window) {
+        long start = System.nanoTime();
+        long currentVersion = paramsSnapshot.get().getVersion();
+        List<INDArray[]> gradients = new ArrayList<>(window.size());
+        List<Double> stalenessWeights = new ArrayList<>(window.size());
+        int[] steps = new int[window.size()];
+        int totalSteps = 0;
+        for(QueuedGradient queued : window){
+            double w = stalenessFilter.weight(currentVersion - queued.getVersion());
+            if(w == 0D)
+                continue;
+            steps[gradients.size()] = queued.getSteps();
+            totalSteps += queued.getSteps();
+            gradients.add(queued.getGradient());
+            stalenessWeights.add(w);
+        }
+        if(gradients.isEmpty())
+            return;
+        double[] weights = GradientAggregator.stepWeights(Arrays.copyOf(steps, gradients.size()));
+        for(int i=0;i<weights.length;i++)
+            weights[i] *= stalenessWeights.get(i);
+        applyGradient(aggregator.reduce(gradients, weights), totalSteps);
+        publishParams();
+        long nanos = System.nanoTime() - start;
+        aggregator.record(gradients.size(), totalSteps, nanos);
+        gradientsApplied.add(gradients.size());
+        applyLatency.record(nanos);
+        if(debug)
+            logger.log(Level.INFO, "Applied {0} gradients ({1} steps) in {2} ms", new Object[]{gradients.size(), totalSteps, nanos / 1e6});
     }
 
     /**
@@ -91,100 +579,514 @@ public class PPO {
      */
     private void applyGradient(INDArray[] gradient, int batchSize) {
         //Critic
-        critic.applyGradient(gradient[0], batchSize);
+        if(!sharesCritic())
+            critic.applyGradient(gradient[0], batchSize);
         //Actor
         actor.applyGradient(gradient[1], batchSize);
     }
     
     /**
-     * Save episode statistics
+     * Critic slot of a published snapshot. A shared critic is not copied again, the slot is
+     * the view of the value head inside the copy of the actor parameters.
+     * @param actorParams copy of the actor parameters
+     * @return
+     */
+    private INDArray criticSlot(INDArray actorParams){
+        if(!sharesCritic())
+            return critic.getParams().dup();
+        INDArray head = critic.getParams();
+        long offset = head.offset() - actor.getParams().offset();
+        return actorParams.get(NDArrayIndex.point(0), NDArrayIndex.interval(offset, offset + head.length())).reshape(head.shape());
+    }
+
+    /**
+     * Publish a copy of the current global parameters with the next version number.
+     * Only called from the thread that updates the global networks, so the copy is never torn.
+     */
+    private void publishParams(){
+        ParamsSnapshot current = paramsSnapshot.get();
+        long version = current == null ? 0L : current.getVersion() + 1;
+        INDArray actorParams = actor.getParams().dup();
+        ParamsSnapshot snapshot = new ParamsSnapshot(version, new INDArray[]{criticSlot(actorParams), actorParams});
+        paramsSnapshot.set(snapshot);
+        if(sharedParams != null)
+            sharedParams.publish(snapshot);
+    }
+
+    /**
+     * Latest published global parameters. Lock free.
+     * @return
+     */
+    @Override
+    public ParamsSnapshot getParamsSnapshot(){
+        return paramsSnapshot.get();
+    }
+
+    /**
+     * Save episode statistics. Lock free, the episode is recorded by the statistics thread.
      * @param thread
      * @param episode
      * @param episodeReward 
      */
-    public synchronized void saveStatistics(String thread, int episode, double episodeReward, long episodeTime){
-        results.addResult(episodeReward, episodeTime);        
-        if(episode%1==0) {
-            logger.log(Level.INFO, "{0} episode {1} terminated. Reward: {2}. Avg-Reward: {3}", new Object[]{thread, episode, episodeReward, results.getLastAverageReward()});
-            double estimatedTimeMinutes = results.getAverageTime().get(results.size() - 1) * (episodesPerWorker - episode) / 60000;
-            int hours = (int) (estimatedTimeMinutes / 60);
-            int minutes = (int) (estimatedTimeMinutes % 60);
-            logger.log(Level.INFO, "Estimated time to complete experiment: {0}:{1} Hs", new Object[]{hours, minutes});
-        }
-        if(episode%modelBackupInterval==0 && this.debug) {
-            try {
-                this.saveModel(workingPath);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    @Override
+    public void saveStatistics(String thread, int episode, double episodeReward, long episodeTime){
+        statistics.publish(new EpisodeAggregator.Episode(thread, episode, episodeReward, episodeTime));
+    }
+
+    /**
+     * Record a batch of episodes in the results and log them. Only called from the
+     * statistics thread.
+     * @param episodes
+     */
+    private void recordEpisodes(List<EpisodeAggregator.Episode> episodes){
+        StringBuilder sb = new StringBuilder();
+        boolean backup = false;
+        for(EpisodeAggregator.Episode e : episodes){
+            results.addResult(e.getReward(), e.getTime());
+            sb.append(e.getThread()).append(" episode ").append(e.getEpisode())
+                    .append(" terminated. Reward: ").append(e.getReward())
+                    .append(". Avg-Reward: ").append(results.getLastAverageReward()).append('\n');
+            backup |= e.getEpisode()%modelBackupInterval==0;
+        }
+        // remaining episodes of the whole budget, run by the workers in parallel
+        double estimatedTimeMinutes = results.getAverageTime().get(results.size() - 1) * Math.max(0, totalEpisodes - results.size()) / Math.max(1, activeWorkers.get()) / 60000;
+        int hours = (int) (estimatedTimeMinutes / 60);
+        int minutes = (int) (estimatedTimeMinutes % 60);
+        sb.append("Estimated time to complete experiment: ").append(hours).append(':').append(minutes).append(" Hs");
+        if(this.debug)
+            sb.append("\nGradient queue depth: ").append(getQueueDepth()).append('/').append(queue.getCapacity())
+                    .append(". Compression ratio: ").append(getCompressionRatio());
+        logger.info(sb.toString());
+        if(backup && this.debug)
+            checkpoint();
+    }
+
+    private void closeStatistics() throws InterruptedException {
+        if(statistics != null){
+            statistics.close();
+            statistics = null;
         }
     }
     
     /**
-     * Iterate over ThreadWorkers checking if are still running.
-     * @return 
+     * Write the latest published parameters as a checkpoint in background. Only the
+     * snapshot reference is taken here; the copies are loaded and saved by the
+     * checkpoint thread.
      */
-    private boolean isTrainingComplete(){
-        boolean flag = true;
-        for(PPOThread tw : workersThreads)
-            if(tw.isRunning()){
-                flag = false;
-                break;
+    private void checkpoint(){
+        if(checkpointer == null)
+            return;
+        ParamsSnapshot snapshot = getParamsSnapshot();
+        checkpointer.submit(path -> {
+            if(!sharesCritic())
+                checkpointCritic.getParams().assign(snapshot.getParams()[0]);
+            checkpointActor.getParams().assign(snapshot.getParams()[1]);
+            checkpointCritic.saveModel(path);
+            checkpointActor.saveModel(path);
+        });
+    }
+
+    private void openCheckpointer(){
+        try {
+            this.checkpointer = new AsyncCheckpointer(Paths.get(workingPath, "checkpoints"), checkpointKeep);
+            if(checkpointActor == null){
+                this.checkpointActor = actor.clone();
+                this.checkpointCritic = criticOf(checkpointActor);
             }
-        return flag;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Checkpoints disabled", e);
+            this.checkpointer = null;
+        }
     }
-    
+
+    private void closeCheckpointer() throws InterruptedException {
+        if(checkpointer != null){
+            checkpointer.close();
+            if(checkpointer.getSkipped() > 0)
+                logger.log(Level.INFO, "Skipped {0} checkpoints requested while writing the previous one", checkpointer.getSkipped());
+            checkpointer = null;
+        }
+    }
+
+    private void closeMetricsExport(){
+        if(metricsExport != null){
+            metricsExport.close();
+            metricsExport = null;
+        }
+    }
+
     /**
-     * Start the threads of each workers.
+     * Reset the learner state for a training run with the given number of workers.
      * @param workers
-     * @throws InterruptedException 
      */
-    public void startTraining(int workers) throws InterruptedException{
+    private void prepareTraining(int workers){
         this.results = new ExperimentResult();
+        this.statistics = new EpisodeAggregator("statistics_thread", this::recordEpisodes, statisticsCapacity);
         this.workersThreads.clear();
+        this.queue = new UpdateQueue<>(queueCapacity, queuePolicy);
+        this.aggregator = new GradientAggregator();
+        this.stalenessFilter = new StalenessFilter(stalenessPolicy, maxStaleness);
+        this.activeWorkers.set(workers);
+        this.totalEpisodes = workers * episodesPerWorker;
+        this.workersDone = new CountDownLatch(1);
+        this.stepCounter.reset();
+        this.denseGradientBytes.reset();
+        this.compressedGradientBytes.reset();
+        this.gradientsEnqueued.reset();
+        this.gradientsApplied.reset();
+        this.lastAdjustNanos = System.nanoTime();
+        this.lastAdjustSteps = 0L;
+        this.discreteInference = null;
+        this.continuousInference = null;
+        publishParams();
+        if(debug)
+            openCheckpointer();
+        this.metricsExport = new MetricsExport(metrics, params);
+        if(mode == Mode.SYNC || mode == Mode.TRAJECTORY){
+            this.learnerActor = actor.clone();
+            this.learnerCritic = criticOf(learnerActor);
+            this.optimizer = PPOOptimizer.fromParams(params);
+        }
+        if(mode == Mode.TRAJECTORY)
+            this.advantageBuffers = new AdvantageBuffers(horizon * workers);
+        if(mode == Mode.TRAJECTORY)
+            this.trajectories = new UpdateQueue<>(queueCapacity, queuePolicy);
+        if(usesBarrier()){
+            this.outerVelocity = null;
+            this.rolloutBarrier = new Phaser(workers){
+                @Override
+                protected boolean onAdvance(int phase, int registeredParties) {
+                    if(mode == Mode.AVERAGING)
+                        averageParams();
+                    else
+                        centralizedUpdate();
+                    return registeredParties == 0;
+                }
+            };
+        }
+    }
+
+    /**
+     * Plan the ND4J threads of the workers and of the service threads (learner, inference).
+     * @param workers
+     * @param services
+     */
+    private void planThreads(int workers, int services){
+        this.threadBudget = threadBudgetEnabled ? new ThreadBudget(threadBudgetCores, workers, services) : null;
+        if(threadBudget != null)
+            logger.log(Level.INFO, threadBudget.toString());
+    }
+
+    private int workerOpThreads(){
+        return threadBudget == null ? 0 : threadBudget.getWorkerThreads();
+    }
+
+    private int serviceOpThreads(){
+        return threadBudget == null ? 0 : threadBudget.getServiceThreads();
+    }
+
+    /**
+     * Learner loop for the ASYNC mode.
+     * @return
+     */
+    private Runnable learnerTask(){
+        return new Runnable() {
+            @Override
+            public void run() {
+                // Block until a gradient is queued or every worker has finished,
+                // then apply it together with the gradients collected in the window
+                List<QueuedGradient> window = new ArrayList<>(aggregationMaxGradients);
+                try {
+                    while (queue.takeBatch(window, aggregationMaxGradients, aggregationWindowMs, TimeUnit.MILLISECONDS) > 0) {
+                        applyGradients(window);
+                        window.clear();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                logger.log(Level.INFO, "Learner finished. Max gradient queue depth: {0}/{1}. Dropped gradients: {2}",
+                        new Object[]{queue.getMaxDepth(), queue.getCapacity(), queue.getDropped()});
+                logger.log(Level.INFO, "Applied {0} gradients in {1} updates. Avg gradients per update: {2}. Avg update time: {3} ms",
+                        new Object[]{aggregator.getGradients(), aggregator.getApplies(), aggregator.getAverageGradientsPerApply(), aggregator.getAverageApplyMillis()});
+                logger.log(Level.INFO, "Gradient staleness histogram: {0}. Dropped stale gradients: {1}",
+                        new Object[]{stalenessFilter.histogramToString(), stalenessFilter.getDropped()});
+                if(compressedGradientBytes.get() > 0L)
+                    logger.log(Level.INFO, "Gradient compression ratio: {0}", getCompressionRatio());
+            }
+        };
+    }
+
+    /**
+     * Learner loop for the TRAJECTORY mode.
+     * @param workers
+     * @return
+     */
+    private Runnable trajectoryLearnerTask(int workers){
+        int maxTrajectories = trajectoryBatch > 0 ? trajectoryBatch : workers;
+        return new Runnable() {
+            @Override
+            public void run() {
+                List<Trajectory> window = new ArrayList<>(maxTrajectories);
+                try {
+                    while (trajectories.takeBatch(window, maxTrajectories, aggregationWindowMs, TimeUnit.MILLISECONDS) > 0) {
+                        trajectoryUpdate(window);
+                        window.clear();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                logger.log(Level.INFO, "Learner finished. Max trajectory queue depth: {0}/{1}. Dropped trajectories: {2}",
+                        new Object[]{trajectories.getMaxDepth(), trajectories.getCapacity(), trajectories.getDropped()});
+                logger.log(Level.INFO, "Learned from {0} trajectories ({1} steps) in {2} updates. Avg trajectories per update: {3}. Avg update time: {4} ms",
+                        new Object[]{aggregator.getGradients(), aggregator.getSteps(), aggregator.getApplies(), aggregator.getAverageGradientsPerApply(), aggregator.getAverageApplyMillis()});
+                logger.log(Level.INFO, "Trajectory staleness histogram: {0}. Dropped stale trajectories: {1}",
+                        new Object[]{stalenessFilter.histogramToString(), stalenessFilter.getDropped()});
+            }
+        };
+    }
+
+    /**
+     * Start the threads of each workers. With WORK_STEALING the EPISODES_WORKER x workers
+     * episodes are shared by all the workers (see EpisodeScheduler) instead of being split
+     * up front. With ELASTIC they are shared too and a WorkerController adds or retires
+     * workers every ELASTIC_INTERVAL_MS (ASYNC and TRAJECTORY modes only).
+     * @param workers
+     * @throws InterruptedException 
+     */
+    public void startTraining(int workers) throws InterruptedException{
+        prepareTraining(workers);
+        this.episodeBudget = elastic ? new EpisodeBudget(totalEpisodes) : null;
+        if(centralInference)
+            createInferenceService(workers);
         // create workers
+        List<RLEnvironment> containers = new ArrayList<>(workers);
         for(int i=0;i<workers;i++){
-            Environment env = envFactory.createInstance();
-            PPOWorker worker = new PPOWorker(
-                    i,
-                    actor.clone(),
-                    critic.clone(),
-                    this,
-                    discountFactor,
-                    lambdaGae,
-                    horizon,
-                    epochs,
-                    targetKl,
-                    preprocessing.clone(),
-                    actionSpace,
-                    debug);
-            RLEnvironment container = new RLEnvironment(worker, env);
-            PPOThread thread = new PPOThread("worker_thread_"+i, this, episodesPerWorker, episodeMaxSimTime, container);
-            this.workersThreads.add(thread);
+            RLEnvironment container = createContainer(i);
+            containers.add(container);
+            if(!workStealing)
+                this.workersThreads.add(createThread(i, container));
         }
+        this.nextWorkerId.set(workers);
         // Start workers
+        this.serviceThreadCount = (mode != Mode.SYNC ? 1 : 0) + (centralInference ? 1 : 0);
+        planThreads(workers, serviceThreadCount);
         ExecutorService es = Executors.newCachedThreadPool();
-        for(int i=0;i<workers;i++)
-            es.execute(workersThreads.get(i));
-        es.execute(new Runnable() {
-                @Override
-                public void run() {
-                    // While loop for queued gradient updates
-                    while (!isTrainingComplete()) {
-                        if (!queue.isEmpty()) {
-                            Triple<INDArray[], Integer, ComputationGraph[]> triple = queue.poll();
-                            INDArray[] gradient = triple.getFirst();
-                            applyGradient(gradient, triple.getSecond());
-                        }
-                    }
-                }
-            });
+        if(discreteInference != null)
+            es.execute(ThreadBudget.withThreads(discreteInference, serviceOpThreads()));
+        if(continuousInference != null)
+            es.execute(ThreadBudget.withThreads(continuousInference, serviceOpThreads()));
+        synchronized (this) {
+            this.workersExecutor = es;
+            for(PPOThread thread : workersThreads)
+                es.execute(thread);
+        }
+        if(mode == Mode.ASYNC)
+            es.execute(ThreadBudget.withThreads(learnerTask(), serviceOpThreads()));
+        else if(mode == Mode.TRAJECTORY)
+            es.execute(ThreadBudget.withThreads(trajectoryLearnerTask(workers), serviceOpThreads()));
+        if(workStealing)
+            new EpisodeScheduler(this, containers, totalEpisodes, episodeMaxSimTime, workerOpThreads()).run();
+        if(elastic){
+            // workers may still be added, the pool is shut down only once all of them finished
+            ScheduledExecutorService controllerExecutor = Executors.newSingleThreadScheduledExecutor();
+            controllerExecutor.scheduleAtFixedRate(this::adjustWorkers, elasticIntervalMs, elasticIntervalMs, TimeUnit.MILLISECONDS);
+            workersDone.await();
+            controllerExecutor.shutdownNow();
+        }
+        synchronized (this) {
+            this.workersExecutor = null;
+        }
         es.shutdown();
         es.awaitTermination(10, TimeUnit.DAYS);
+        // the statistics thread may still request a checkpoint
+        closeStatistics();
+        closeCheckpointer();
+        closeMetricsExport();
+    }
+
+    /**
+     * Critic to pair with a clone of the actor: the value head of the clone when actor and
+     * critic share a network, otherwise a clone of the critic.
+     * @param actorClone
+     * @return
+     */
+    private PPOCritic criticOf(PPOActor actorClone){
+        if(actorClone instanceof PPOActorCritic)
+            return ((PPOActorCritic) actorClone).getCritic();
+        return critic.clone();
+    }
+
+    private RLEnvironment createContainer(int id){
+        PPOActor workerActor = actor.clone();
+        PPOWorker worker = new PPOWorker(
+                id,
+                workerActor,
+                criticOf(workerActor),
+                this,
+                discountFactor,
+                lambdaGae,
+                horizon,
+                PPOOptimizer.fromParams(params),
+                preprocessing.clone(),
+                actionSpace,
+                debug);
+        worker.setGradientCompressor(GradientCompressor.fromParams(params, 2));
+        return new RLEnvironment(worker, envFactory.createInstance());
+    }
+
+    private PPOThread createThread(int id, RLEnvironment container){
+        PPOThread thread = episodeBudget != null
+                ? new PPOThread("worker_thread_"+id, this, episodeBudget, episodeMaxSimTime, container)
+                : new PPOThread("worker_thread_"+id, this, episodesPerWorker, episodeMaxSimTime, container);
+        // the current worker share, re-planned when the ELASTIC pool is resized
+        thread.setOpThreads(this::workerOpThreads);
+        return thread;
+    }
+
+    /**
+     * Start a new worker during an ELASTIC training.
+     * @return false if the training is over or there are no episodes left
+     */
+    public synchronized boolean addWorker(){
+        if(workersExecutor == null || episodeBudget == null)
+            throw new IllegalStateException("Workers can only be added during an ELASTIC training.");
+        if(episodeBudget.getRemaining() == 0)
+            return false;
+        // once the last worker has finished the learner is closed, do not revive it
+        if(activeWorkers.getAndUpdate(n -> n == 0 ? 0 : n + 1) == 0)
+            return false;
+        int id = nextWorkerId.getAndIncrement();
+        PPOThread thread = createThread(id, createContainer(id));
+        workersThreads.add(thread);
+        workersExecutor.execute(thread);
+        return true;
+    }
+
+    /**
+     * Ask the most recently added worker to stop after its current episode. Its remaining
+     * episodes are run by the other workers.
+     * @return false if there is no worker to retire
+     */
+    public synchronized boolean retireWorker(){
+        for(int i=workersThreads.size()-1;i>=0;i--){
+            PPOThread thread = workersThreads.get(i);
+            if(!thread.isFinished() && !thread.isRetireRequested()){
+                thread.retire();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return workers neither finished nor retiring
+     */
+    public synchronized int getWorkerCount(){
+        int count = 0;
+        for(PPOThread thread : workersThreads)
+            if(!thread.isFinished() && !thread.isRetireRequested())
+                count++;
+        return count;
+    }
+
+    /**
+     * Controller hook for ELASTIC trainings, QueueDepthController by default.
+     * @param workerController
+     */
+    public void setWorkerController(WorkerController workerController){
+        this.workerController = workerController;
+    }
+
+    private void adjustWorkers(){
+        long now = System.nanoTime();
+        long steps = stepCounter.get();
+        double stepsPerSecond = (steps - lastAdjustSteps) * 1e9 / Math.max(1L, now - lastAdjustNanos);
+        lastAdjustNanos = now;
+        lastAdjustSteps = steps;
+        int current = getWorkerCount();
+        int target = workerController.targetWorkers(current, getQueueDepth(), queue.getCapacity(), stepsPerSecond);
+        int workers = current;
+        // plan the resized pool first so the workers added start with their share, every
+        // worker applies the new budget at its next episode
+        if(target != current)
+            planThreads(Math.max(1, target), serviceThreadCount);
+        while(workers < target && addWorker())
+            workers++;
+        while(workers > target && retireWorker())
+            workers--;
+        // the pool could not reach the target, plan the workers left
+        if(workers != target)
+            planThreads(Math.max(1, workers), serviceThreadCount);
+        if(workers != current || debug)
+            logger.log(Level.INFO, "Elastic pool: {0} -> {1} workers. Queue depth: {2}/{3}. Steps/s: {4}",
+                    new Object[]{current, workers, getQueueDepth(), queue.getCapacity(), stepsPerSecond});
     }
     
-    public synchronized INDArray[] getNetsParams(){
-        return new INDArray[]{this.critic.getParams(), this.actor.getParams()};
+    /**
+     * Training throughput metrics, exported to JMX and to METRICS_FILE (see MetricsExport).
+     * @return
+     */
+    @Override
+    public MetricsRegistry getMetrics(){
+        return metrics;
+    }
+
+    public StalenessFilter getStalenessFilter(){
+        return stalenessFilter;
+    }
+
+    /**
+     * Run only the learner, for workers running in other processes (see RemoteWorkerRunner)
+     * that connect to the given port. Returns when every remote worker has finished.
+     * With SHARED_PARAMS_FILE the parameters are also published to that memory mapped file,
+     * so workers on the same host read them from there instead of pulling them over TCP.
+     * Workers that have not connected after REMOTE_ACCEPT_TIMEOUT_MS (5 minutes, 0 to wait
+     * forever) are counted as finished.
+     * @param workers number of remote workers
+     * @param port
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public void startRemoteTraining(int workers, int port) throws InterruptedException, IOException {
+        if(mode != Mode.ASYNC)
+            throw new IllegalStateException("Remote workers only support the ASYNC training mode.");
+        prepareTraining(workers);
+        if(sharedParamsFile != null){
+            ParamsSnapshot snapshot = getParamsSnapshot();
+            sharedParams = new SharedParamsWriter(Paths.get(sharedParamsFile), snapshot.getParams());
+            sharedParams.publish(snapshot);
+        }
+        ExecutorService es = Executors.newCachedThreadPool();
+        // the workers run in other processes, the learner can use every core
+        es.execute(ThreadBudget.withThreads(learnerTask(), threadBudgetEnabled ? threadBudgetCores : 0));
+        try (LearnerServer server = new LearnerServer(this, port, workers, remoteAcceptTimeoutMs)) {
+            server.start();
+            es.shutdown();
+            es.awaitTermination(10, TimeUnit.DAYS);
+        } finally {
+            if(sharedParams != null){
+                sharedParams.close();
+                sharedParams = null;
+            }
+            closeStatistics();
+            closeCheckpointer();
+            closeMetricsExport();
+        }
+    }
+
+    @Override
+    public Mode getMode(){
+        return mode;
+    }
+
+    /**
+     * Number of gradients (trajectories in the TRAJECTORY mode) waiting for the learner.
+     * @return
+     */
+    public int getQueueDepth(){
+        if(mode == Mode.TRAJECTORY)
+            return trajectories == null ? 0 : trajectories.size();
+        return queue == null ? 0 : queue.size();
     }
 
     public ExperimentResult getResults() {
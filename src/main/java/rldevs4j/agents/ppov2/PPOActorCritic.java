@@ -0,0 +1,19 @@
+package rldevs4j.agents.ppov2;
+
+import org.deeplearning4j.nn.gradient.Gradient;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * Actor and critic sharing one network: a trunk with a policy head and a value head.
+ * The actor holds the whole parameter vector and its gradient covers the combined policy
+ * and value loss; the critic returned by getCritic is the value head of the same network.
+ */
+public interface PPOActorCritic extends PPOActor {
+    public Gradient gradient(INDArray states, INDArray actions, INDArray advantages, INDArray probOld,
+                             INDArray logProbOld, INDArray oldValues, INDArray returns);
+    public PPOCritic getCritic();
+    /**
+     * @return value of the observation of the last action call, from the same forward pass
+     */
+    public double lastValue();
+}
@@ -10,6 +10,12 @@ public interface PPOCritic {
     public void saveModel(String path) throws IOException;
     public void loadModel(String path) throws IOException;
     public INDArray output(INDArray obs);
+    /**
+     * Value of a single observation.
+     * @param obs
+     * @return
+     */
+    public double value(INDArray obs);
     public Gradient gradient(INDArray states, INDArray oldValues, INDArray returns);
     public void applyGradient(INDArray gradient, int batchSize);
     public INDArray getParams();
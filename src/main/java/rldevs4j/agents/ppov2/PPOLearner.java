@@ -0,0 +1,20 @@
+package rldevs4j.agents.ppov2;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import rldevs4j.agents.utils.compression.CompressedGradient;
+import rldevs4j.agents.utils.metrics.MetricsRegistry;
+
+/**
+ * Learner side seen by the PPO workers and their threads in the ASYNC mode: parameters are
+ * pulled and gradients pushed. Implemented by RemoteLearner for workers running in another
+ * process, see LocalPPOLearner for the other modes.
+ */
+public interface PPOLearner {
+    public PPO.Mode getMode();
+    public ParamsSnapshot getParamsSnapshot();
+    public void enqueueGradient(INDArray[] gradient, int steps, long version);
+    public void enqueueCompressedGradient(CompressedGradient[] gradient, int steps, long version);
+    public void saveStatistics(String thread, int episode, double episodeReward, long episodeTime);
+    public void workerFinished();
+    public MetricsRegistry getMetrics();
+}
@@ -0,0 +1,265 @@
+package rldevs4j.agents.ppov2;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * PPO epochs over a batch of experience. Computes and accumulates the actor and critic
+ * updates, with early stopping when the approximate KL divergence gets too large.
+ * Used by the workers on their own trajectories and by the learner on gathered rollouts.
+ * With a minibatch size each epoch runs one step per minibatch instead of one step over
+ * the whole batch; minibatches are contiguous row ranges of the batch or, when shuffled,
+ * rows gathered through a new index permutation each epoch into buffers the optimizer
+ * allocates once and reuses.
+ */
+public class PPOOptimizer {
+    private final int epochs;
+    private final float targetKl;
+    private final int minibatchSize;
+    private final boolean shuffle;
+    private final Random rnd;
+    private int[] permutation;
+    private int[] indexes;
+    private int[] tailIndexes;
+    private final INDArray[] minibatch;
+    private INDArray sharedCriticGradient;
+    private final Logger logger;
+
+    public PPOOptimizer(int epochs, float targetKl) {
+        this(epochs, targetKl, 0, true);
+    }
+
+    /**
+     * @param epochs
+     * @param targetKl
+     * @param minibatchSize rows per step, 0 to use the whole batch
+     * @param shuffle
+     */
+    public PPOOptimizer(int epochs, float targetKl, int minibatchSize, boolean shuffle) {
+        this.epochs = epochs;
+        this.targetKl = targetKl;
+        this.minibatchSize = minibatchSize;
+        this.shuffle = shuffle;
+        this.rnd = new Random();
+        this.minibatch = new INDArray[7];
+        this.logger = Logger.getGlobal();
+    }
+
+    /**
+     * Optimizer configured by EPOCHS, TARGET_KL, MINIBATCH_SIZE (0, whole batch) and
+     * SHUFFLE (true, as the two argument constructor).
+     * @param params
+     * @return
+     */
+    public static PPOOptimizer fromParams(Map<String,Object> params) {
+        return new PPOOptimizer(
+                (int) params.getOrDefault("EPOCHS", 100),
+                (float) params.getOrDefault("TARGET_KL", 100),
+                (int) params.getOrDefault("MINIBATCH_SIZE", 0),
+                (boolean) params.getOrDefault("SHUFFLE", true));
+    }
+
+    /**
+     * Run the PPO epochs and return the accumulated gradients.
+     * @param actor
+     * @param critic
+     * @param states
+     * @param actions
+     * @param returns
+     * @param advantages
+     * @param oldProbs
+     * @param oldLogProbs
+     * @param oldValues
+     * @return {critic gradient, actor gradient}
+     */
+    public INDArray[] update(
+            PPOActor actor,
+            PPOCritic critic,
+            INDArray states,
+            INDArray actions,
+            INDArray returns,
+            INDArray advantages,
+            INDArray oldProbs,
+            INDArray oldLogProbs,
+            INDArray oldValues) {
+        int rows = states.rows();
+        if (minibatchSize <= 0 || minibatchSize >= rows)
+            return fullBatchUpdate(actor, critic, states, actions, returns, advantages, oldProbs, oldLogProbs, oldValues);
+
+        INDArray[] g = new INDArray[2];
+        for (int i = 0; i < epochs; i++) {
+            if (shuffle)
+                shuffle(rows);
+            double kl = 0D;
+            int minibatches = 0;
+            for (int start = 0; start < rows; start += minibatchSize) {
+                int end = Math.min(rows, start + minibatchSize);
+                if (shuffle) {
+                    int[] idx = minibatchIndexes(start, end);
+                    step(actor, critic, gather(0, states, idx), gather(1, actions, idx), gather(2, returns, idx),
+                            gather(3, advantages, idx), gather(4, oldProbs, idx), gather(5, oldLogProbs, idx),
+                            gather(6, oldValues, idx), g);
+                } else {
+                    step(actor, critic, range(states, start, end), range(actions, start, end), range(returns, start, end),
+                            range(advantages, start, end), range(oldProbs, start, end), range(oldLogProbs, start, end),
+                            range(oldValues, start, end), g);
+                }
+                kl += actor.getCurrentApproxKL();
+                minibatches++;
+            }
+            kl /= minibatches;
+            if (kl > 1.5 * targetKl) {
+                logger.info(String.format("Early stopping at epoch %d due to reaching max kl: %f", i, kl));
+                break;
+            }
+        }
+        return new INDArray[]{criticGradient(critic, g[1]), g[0]};
+    }
+
+    private INDArray[] fullBatchUpdate(
+            PPOActor actor,
+            PPOCritic critic,
+            INDArray states,
+            INDArray actions,
+            INDArray returns,
+            INDArray advantages,
+            INDArray oldProbs,
+            INDArray oldLogProbs,
+            INDArray oldValues) {
+        INDArray[] g = new INDArray[2];
+        for (int i = 0; i < epochs; i++) {
+            step(actor, critic, states, actions, returns, advantages, oldProbs, oldLogProbs, oldValues, g);
+            if (actor.getCurrentApproxKL() > 1.5 * targetKl) {
+                logger.info(String.format("Early stopping at epoch %d due to reaching max kl: %f", i, actor.getCurrentApproxKL()));
+                break;
+            }
+        }
+        return new INDArray[]{criticGradient(critic, g[1]), g[0]};
+    }
+
+    /**
+     * Compute the actor and critic updates of a batch and add them to g = {actor, critic}.
+     */
+    private void step(PPOActor actor, PPOCritic critic, INDArray states, INDArray actions, INDArray returns,
+                      INDArray advantages, INDArray oldProbs, INDArray oldLogProbs, INDArray oldValues, INDArray[] g) {
+        INDArray gActor;
+        if (actor instanceof PPOActorCritic)
+            // one backward pass of the policy and value losses through the shared trunk
+            gActor = ((PPOActorCritic) actor).gradient(states, actions, advantages, oldProbs, oldLogProbs, oldValues, returns).gradient();
+        else
+            gActor = actor.gradient(states, actions, advantages, oldProbs, oldLogProbs).gradient();
+        if (g[0] == null)
+            g[0] = gActor;
+        else
+            g[0].addi(gActor);
+        // the value head of a shared network is trained by the actor gradient
+        if (actor instanceof PPOActorCritic)
+            return;
+        INDArray gCritic = critic.gradient(states, oldValues, returns).gradient();
+        if (g[1] == null)
+            g[1] = gCritic;
+        else
+            g[1].addi(gCritic);
+    }
+
+    /**
+     * Critic slot of the result. A shared critic has no gradient of its own, its slot is a
+     * zero array allocated once and never written.
+     */
+    private INDArray criticGradient(PPOCritic critic, INDArray gCritic) {
+        if (gCritic != null)
+            return gCritic;
+        long length = critic.getParams().length();
+        if (sharedCriticGradient == null || sharedCriticGradient.length() != length)
+            sharedCriticGradient = Nd4j.zeros(1, length);
+        return sharedCriticGradient;
+    }
+
+    /**
+     * Fisher-Yates shuffle of the reused index permutation.
+     * @param rows
+     */
+    private void shuffle(int rows) {
+        if (permutation == null || permutation.length != rows) {
+            permutation = new int[rows];
+            for (int i = 0; i < rows; i++)
+                permutation[i] = i;
+        }
+        for (int i = rows - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            int tmp = permutation[i];
+            permutation[i] = permutation[j];
+            permutation[j] = tmp;
+        }
+    }
+
+    /**
+     * Rows [start, end) of a, as a view.
+     */
+    private static INDArray range(INDArray a, int start, int end) {
+        if (a.rank() == 1)
+            return a.get(NDArrayIndex.interval(start, end));
+        return a.get(NDArrayIndex.interval(start, end), NDArrayIndex.all());
+    }
+
+    /**
+     * Permutation entries [start, end) copied into the reused index array of that length:
+     * every minibatch but the last of an epoch has minibatchSize rows.
+     */
+    private int[] minibatchIndexes(int start, int end) {
+        int n = end - start;
+        int[] idx;
+        if (n == minibatchSize) {
+            if (indexes == null)
+                indexes = new int[n];
+            idx = indexes;
+        } else {
+            if (tailIndexes == null || tailIndexes.length != n)
+                tailIndexes = new int[n];
+            idx = tailIndexes;
+        }
+        System.arraycopy(permutation, start, idx, 0, n);
+        return idx;
+    }
+
+    /**
+     * The given rows of a, gathered into the reused minibatch buffer of the slot. The result
+     * is overwritten by the next minibatch.
+     */
+    private INDArray gather(int slot, INDArray a, int[] indexes) {
+        INDArray source = a.rank() == 1 ? a.reshape(a.length(), 1) : a;
+        INDArray buffer = minibatch[slot];
+        if (buffer == null || buffer.columns() != source.columns() || buffer.dataType() != source.dataType()) {
+            buffer = Nd4j.create(source.dataType(), minibatchSize, source.columns());
+            minibatch[slot] = buffer;
+        }
+        INDArray rows = indexes.length == minibatchSize ? buffer : buffer.get(NDArrayIndex.interval(0, indexes.length), NDArrayIndex.all());
+        Nd4j.pullRows(source, rows, 1, indexes);
+        return a.rank() == 1 ? rows.reshape(indexes.length) : rows;
+    }
+
+    /**
+     * Run the PPO epochs over a rollout.
+     * @param actor
+     * @param critic
+     * @param rollout
+     * @return {critic gradient, actor gradient}
+     */
+    public INDArray[] update(PPOActor actor, PPOCritic critic, Rollout rollout) {
+        return update(
+                actor,
+                critic,
+                rollout.getStates(),
+                rollout.getActions(),
+                rollout.getReturns(),
+                rollout.getAdvantages(),
+                rollout.getProbs(),
+                rollout.getLogProbs(),
+                rollout.getValues());
+    }
+}
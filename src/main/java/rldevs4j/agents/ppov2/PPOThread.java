@@ -1,38 +1,104 @@
 package rldevs4j.agents.ppov2;
 
 import facade.DevsSuiteFacade;
+import rldevs4j.agents.utils.concurrent.ThreadBudget;
 import rldevs4j.base.env.RLEnvironment;
 
+import java.util.function.IntSupplier;
+
 /**
  * Thread class for run each worker training thread.
  * @author Ezequiel Beccaría
  */
 public class PPOThread extends Thread {
-    private final PPO PPO;
+    private final PPOLearner PPO;
     private DevsSuiteFacade facade;
     private final int workerEpisodes;
+    private final EpisodeBudget budget;
     private final double episodeTime;
     private final RLEnvironment container;
-    private boolean running;
+    private IntSupplier opThreads;
+    private volatile boolean running;
+    private volatile boolean retireRequested;
+    private volatile boolean finished;
     private final boolean DEBUG_MODE = false;
 
-    public PPOThread(String name, PPO ppo, int workerEpisodes, double episodeTime, RLEnvironment container) {
+    public PPOThread(String name, PPOLearner ppo, int workerEpisodes, double episodeTime, RLEnvironment container) {
+        this(name, ppo, workerEpisodes, null, episodeTime, container);
+    }
+
+    /**
+     * @param name
+     * @param ppo
+     * @param budget episodes shared with the other workers, the thread runs until it is spent
+     * @param episodeTime
+     * @param container
+     */
+    public PPOThread(String name, PPOLearner ppo, EpisodeBudget budget, double episodeTime, RLEnvironment container) {
+        this(name, ppo, 0, budget, episodeTime, container);
+    }
+
+    private PPOThread(String name, PPOLearner ppo, int workerEpisodes, EpisodeBudget budget, double episodeTime, RLEnvironment container) {
         super(name);
         this.PPO = ppo;
         this.workerEpisodes = workerEpisodes;
+        this.budget = budget;
         this.episodeTime = episodeTime;
         this.container = container;
         this.running = false;
+        this.retireRequested = false;
+        this.finished = false;
+    }
+
+    /**
+     * ND4J threads of the worker, applied before every episode so the thread follows the
+     * budget of a resized pool (see ThreadBudget). Null to leave them unchanged.
+     * @param opThreads
+     */
+    public void setOpThreads(IntSupplier opThreads) {
+        this.opThreads = opThreads;
     }
 
     public boolean isRunning() {
         return running;
     }
 
+    /**
+     * Ask the thread to stop after the current episode.
+     */
+    public void retire() {
+        this.retireRequested = true;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public boolean isRetireRequested() {
+        return retireRequested;
+    }
+
     @Override
     public void run() {
         this.running = true;
-        for (int i = 1; i <= workerEpisodes; i++) {
+        try {
+            runEpisodes();
+        } finally {
+            this.running = false;
+            this.finished = true;
+            PPO.workerFinished();
+        }
+        container.getAgent().clear();
+    }
+
+    private void runEpisodes() {
+        int i = 0;
+        while (!retireRequested) {
+            i = budget == null ? (i < workerEpisodes ? i + 1 : -1) : budget.claim();
+            if(i < 0)
+                break;
+            if(opThreads != null)
+                ThreadBudget.applyToCurrentThread(opThreads.getAsInt());
             //Inititalize environment and simulator
             facade = new DevsSuiteFacade(this.container);
             facade.reset();
@@ -47,8 +113,6 @@ public class PPOThread extends Thread {
             //Calc gradients, enqueue gradients and reset worker agent
             this.container.getAgent().episodeFinished();   
         }
-        this.running = false;        
-        container.getAgent().clear();
     }
 
 }
\ No newline at end of file
@@ -8,8 +8,14 @@ import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.indexing.BooleanIndexing;
 import org.nd4j.linalg.indexing.conditions.Conditions;
 import org.nd4j.linalg.ops.transforms.Transforms;
-import rldevs4j.agents.utils.memory.TDTuple;
-import rldevs4j.agents.utils.memory.TDTupleBatch;
+import rldevs4j.agents.utils.AdvantageBuffers;
+import rldevs4j.agents.utils.compression.CompressedGradient;
+import rldevs4j.agents.utils.compression.GradientCompressor;
+import rldevs4j.agents.utils.distribution.Categorical;
+import rldevs4j.agents.utils.inference.DiscreteDecision;
+import rldevs4j.agents.utils.memory.RolloutBuffer;
+import rldevs4j.agents.utils.metrics.Counter;
+import rldevs4j.agents.utils.metrics.Histogram;
 import rldevs4j.agents.utils.scaler.StandartScaler;
 import rldevs4j.base.agent.Agent;
 import rldevs4j.base.agent.preproc.Preprocessing;
@@ -18,9 +24,7 @@ import rldevs4j.base.env.msg.Event;
 import rldevs4j.base.env.msg.EventType;
 import rldevs4j.base.env.msg.Step;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,21 +33,34 @@ import java.util.logging.Logger;
  * @author Ezequiel Beccaría
  */
 public class PPOWorker extends Agent {
+    private final int id;
     private PPOActor actor;
     private PPOCritic critic;
+    private final boolean sharedCritic;
     private StandartScaler scaler;
     private float[][] actionSpace;
 
     private final int horizon;
-    private final int epochs;
-    private final float targetKl;
-    private final PPO global;
-    private final List<TDTuple> trace;
-    private TDTuple currentTuple;
+    private final PPOOptimizer optimizer;
+    private final PPOLearner global;
+    private final LocalPPOLearner local;
+    private final boolean centralInference;
+    private final RolloutBuffer buffer;
+    private final AdvantageBuffers advantageBuffers;
+    private double pendingActionSum;
     private float cumReward;
     private final float discountFactor; //discount rate
     private final float lambdaGae;
     private int iteration=0;
+    private long paramsVersion;
+    private boolean paramsDirty;
+    private int localUpdates;
+    private int stepsSinceAveraging;
+    private INDArray[] preUpdateParams;
+    private GradientCompressor compressor;
+    private final Counter envSteps;
+    private final Histogram decisionLatency;
+    private final Histogram syncLatency;
 
     private Logger logger;
     private boolean debug;
@@ -52,26 +69,40 @@ public class PPOWorker extends Agent {
             int id,
             PPOActor actor,
             PPOCritic critic,
-            PPO global,
+            PPOLearner global,
             float discountFactor,
             float lambdaGae,
             int horizon,
-            int epochs,
-            float targetKl,
+            PPOOptimizer optimizer,
             Preprocessing preprocessing,
             float[][] actionSpace,
             boolean debug) {
         super("worker"+id, preprocessing, 0D);
+        this.id = id;
         this.actor = actor;
         this.critic = critic;
+        // the value head of a shared network is synced and trained through the actor
+        this.sharedCritic = actor instanceof PPOActorCritic;
         this.scaler = StandartScaler.getInstance(true, true);
         this.horizon = horizon;
-        this.epochs = epochs;
-        this.targetKl = targetKl;
+        this.optimizer = optimizer;
         this.discountFactor = discountFactor;
         this.lambdaGae = lambdaGae;
         this.global = global;
-        this.trace = new ArrayList<>();
+        // the modes other than ASYNC and the central inference need a learner in this process
+        this.local = global instanceof LocalPPOLearner ? (LocalPPOLearner) global : null;
+        if(local == null && global.getMode() != PPO.Mode.ASYNC)
+            throw new IllegalArgumentException("The "+global.getMode()+" training mode needs a learner in the worker process.");
+        this.centralInference = local != null && local.isCentralInference();
+        this.envSteps = global.getMetrics().counter("worker_" + id + "_env_steps");
+        this.decisionLatency = global.getMetrics().histogram("decision_latency_ns");
+        this.syncLatency = global.getMetrics().histogram("sync_latency_ns");
+        // workers start from the latest published global parameters, also when they are
+        // added while the learner is updating the global networks
+        this.paramsVersion = -1L;
+        syncParams();
+        this.buffer = new RolloutBuffer(horizon);
+        this.advantageBuffers = new AdvantageBuffers(horizon);
         this.cumReward = 0;
         this.logger = Logger.getGlobal();
         this.actionSpace = actionSpace;
@@ -82,38 +113,64 @@ public class PPOWorker extends Agent {
     public Event observation(Step step) {
         INDArray state = step.getObservationINDArray();
 //        System.out.println(state);
-        double reward = step.getReward();
+        return act(state, step.getReward(), step.isDone());
+    }
+
+    /**
+     * End the pending step with the reward and act on the state.
+     * @param state observation
+     * @param reward reward of the pending step
+     * @param done true if the pending step ended the episode
+     * @return action event
+     */
+    Event act(INDArray state, double reward, boolean done) {
         cumReward+= reward;
         //compute new policy
-        if(currentTuple!=null){
-            currentTuple.addReward(reward-Nd4j.sum((INDArray)currentTuple.getAction()).getDouble(0));
-            currentTuple.setNextState(state.dup()); //set next state
-            currentTuple.setDone(step.isDone());
-            trace.add(currentTuple);
+        if(buffer.hasPendingStep()){
+            buffer.endStep(reward-pendingActionSum, done);
 
-            if(trace.size() == horizon)
+            if(buffer.isFull())
                 train();
         }
+        envSteps.inc();
+        long start = System.nanoTime();
+        //store the current step in place, with the behaviour value and policy outputs
+        //train() uses instead of forwarding the whole horizon again, the value after the
+        //action as a shared actor-critic computes both in the same forward pass
+        buffer.startStep(state);
         if(actor instanceof DiscretePPOActor){
-            int action = ((DiscretePPOActor)actor).action(state);
-            INDArray onehotAction = Nd4j.zeros(actionSpace.length);
-            onehotAction.putScalar(action, 1D);
-
-            //store current td tuple
-            currentTuple = new TDTuple(state.dup(), onehotAction, null, 0);
+            int action;
+            INDArray probs = buffer.getStepProbs(actionSpace.length);
+            if(centralInference){
+                // the service returns the outputs of the policy copy the action was sampled from
+                DiscreteDecision decision = local.inferDiscreteAction(state);
+                action = decision.getAction();
+                float[] p = decision.getProbs();
+                for(int j=0;j<p.length;j++)
+                    probs.putScalar(0, j, p[j]);
+                buffer.setLogProb(decision.getLogProb());
+            }else{
+                action = ((DiscretePPOActor)actor).action(state, probs);
+                buffer.setLogProb(Categorical.logProb(probs.getDouble(action)));
+            }
+            decisionLatency.record(System.nanoTime() - start);
+            // a shared network computed the value with the local decision
+            buffer.setValue(sharedCritic && !centralInference ? ((PPOActorCritic)actor).lastValue() : critic.value(state));
+            buffer.setAction(action);
+            pendingActionSum = 1D;
 //            if(debug){ // Debuging
-//                logger.info(currentTuple.toStringMinimal());
 //                logger.log(Level.INFO, "Action: {0}", Arrays.toString(actionSpace[action]));
 //            }
             return new Continuous(action, "action", EventType.action, actionSpace[action]);
         }else{
-            float[] action = ((ContinuosPPOActor)actor).action(state);
-            INDArray contAction = Nd4j.create(action);
-
-            //store current td tuple
-            currentTuple = new TDTuple(state.dup(), contAction, null, 0);
+            float[] action = centralInference ? local.inferContinuousAction(state) : ((ContinuosPPOActor)actor).action(state);
+            decisionLatency.record(System.nanoTime() - start);
+            buffer.setValue(critic.value(state));
+            buffer.setAction(action);
+            pendingActionSum = 0D;
+            for(float a : action)
+                pendingActionSum += a;
 //            if(debug){ // Debuging
-//                logger.info(currentTuple.toStringMinimal());
 //                logger.log(Level.INFO, "Action: {0}", Arrays.toString(action));
 //            }
             return new Continuous(0, "action", EventType.action, action);
@@ -126,48 +183,73 @@ public class PPOWorker extends Agent {
     }
 
     private double[] train(){
-        if(trace.size()>0) {
-            TDTupleBatch batch = new TDTupleBatch(trace);
-            //oldPi[0] -> sample, oldPi[1] -> probs, oldPi[2] -> logProb, oldPi[3] -> entropy
-            INDArray[] oldPi = actor.output(batch.getStates(), batch.getActions());
-            INDArray oldValues = critic.output(batch.getStates());
+        if(!buffer.isEmpty()) {
+            // views of the buffer rows, valid until the buffer is cleared
+            INDArray states = buffer.getObservations();
+            INDArray actions = buffer.getActions();
+            int steps = buffer.size();
+            INDArray oldProbs;
+            INDArray oldLogProbs;
+            if(recordsPolicy()){
+                oldProbs = buffer.getProbs();
+                oldLogProbs = buffer.getLogProbs();
+            }else{
+                //oldPi[0] -> sample, oldPi[1] -> probs, oldPi[2] -> logProb, oldPi[3] -> entropy
+                INDArray[] oldPi = actor.output(states, actions);
+                oldProbs = oldPi[1];
+                oldLogProbs = oldPi[2];
+            }
+            if(global.getMode() == PPO.Mode.TRAJECTORY){
+                // the learner estimates the advantages with its own critic and runs the epochs,
+                // later, so the trajectory gets its own copy of the buffer rows
+                local.enqueueTrajectory(new Trajectory(id, paramsVersion, states.dup(), actions.dup(),
+                        scaler.partialFitTransform(buffer.getRewards()), buffer.getMask(), oldProbs.dup(), oldLogProbs.dup()));
+                syncParams();
+                buffer.clear();
+                iteration++;
+                return new double[]{0};
+            }
+            INDArray oldValues = buffer.getValues();
             if(debug && iteration%100==0){
-                System.out.println(oldPi[1]);
+                System.out.println(oldProbs);
                 System.out.println(oldValues);
             }
             //gae[0] -> returns
             //gae[1] -> advantages
-            INDArray[] gae = gae(oldValues, scaler.partialFitTransform(batch.getRewards()), batch.getDone());
+            INDArray[] gae = advantageBuffers.gae(oldValues, scaler.partialFitTransform(buffer.getRewards()), buffer.getMask(), steps, discountFactor, lambdaGae);
 //            INDArray[] gae = gae(oldValues, scaler.partialFitTransform(clip(batch.getRewards(),-5F, 5F)), batch.getDone());
 
-            INDArray gActor = null;
-            INDArray gCritic = null;
-
-            for (int i = 0; i < epochs; i++) {
-                if (gActor == null) {
-                    gActor = actor.gradient(batch.getStates(), batch.getActions(), gae[1], oldPi[1], oldPi[2]).gradient();
-                    gCritic = critic.gradient(batch.getStates(), oldValues, gae[0]).gradient();
-                } else {
-                    gActor.addi(actor.gradient(batch.getStates(), batch.getActions(), gae[1], oldPi[1], oldPi[2]).gradient());
-                    gCritic.addi(critic.gradient(batch.getStates(), oldValues, gae[0]).gradient());
-                }
-                if (actor.getCurrentApproxKL() > 1.5 * targetKl) {
-                    logger.info(String.format("Early stopping at epoch %d due to reaching max kl: %f", i, actor.getCurrentApproxKL()));
-                    break;
+            if(global.getMode() == PPO.Mode.SYNC){
+                // hand the rollout over and wait at the barrier for the centralized update
+                local.submitRollout(new Rollout(id, states, actions, gae[0], gae[1], oldProbs, oldLogProbs, oldValues));
+            }else if(global.getMode() == PPO.Mode.AVERAGING){
+                localUpdate(states, actions, gae[0], gae[1], oldProbs, oldLogProbs, oldValues);
+                stepsSinceAveraging += steps;
+                if(++localUpdates % local.getAveragingInterval() == 0){
+                    // wait at the barrier for the learner to average the local parameters,
+                    // the global ones only change there so syncParams keeps the local progress
+                    local.submitParams(id, new INDArray[]{critic.getParams().dup(), actor.getParams().dup()}, stepsSinceAveraging);
+                    stepsSinceAveraging = 0;
                 }
+            }else {
+                INDArray[] g = optimizer.update(actor, critic, states, actions, gae[0], gae[1], oldProbs, oldLogProbs, oldValues);
+                // the epochs ran on the local networks, they no longer hold the snapshot
+                paramsDirty = true;
+                if(compressor != null)
+                    global.enqueueCompressedGradient(
+                            new CompressedGradient[]{compress(0, g[0]), compress(1, g[1])},
+                            steps,
+                            paramsVersion);
+                else
+                    global.enqueueGradient(
+                            new INDArray[]{g[0].dup(), g[1].dup()},
+                            steps,
+                            paramsVersion);
             }
 
+            syncParams();
 
-            global.enqueueGradient(
-                    new INDArray[]{gCritic.dup(), gActor.dup()},
-                    trace.size());
-
-            INDArray[] globalParams = global.getNetsParams();
-
-            critic.setParams(globalParams[0]);
-            actor.setParams(globalParams[1]);
-
-            trace.clear();
+            buffer.clear();
             iteration++;
             if(debug){
                 INDArray input = Nd4j.diag(Nd4j.ones(9));
@@ -179,27 +261,64 @@ public class PPOWorker extends Agent {
     }
 
     /**
-     * General Advantage Estimation
+     * @return true if the acting path records the behaviour policy outputs, i.e. discrete
+     * actions, sampled by the local actor or by the central inference service
+     */
+    private boolean recordsPolicy(){
+        return actor instanceof DiscretePPOActor;
+    }
+
+    /**
+     * Copy the latest global parameters into the worker networks, in place, if a new
+     * version has been published since the last copy or the local networks were trained
+     * since then. In the AVERAGING mode the local progress is kept until a new version.
      */
-    private INDArray[] gae(INDArray values, double[] rewards, double[] mask){
-        INDArray returns = Nd4j.zeros(rewards.length);
-        INDArray advantages = Nd4j.zeros(rewards.length);
-
-        double runningReturn = 0D;
-        double previousValue = 0D;
-        double runningAdvantage = 0D;
-
-        for(int t=rewards.length-1;t>=0;t--){
-            runningReturn = rewards[t] + discountFactor * runningReturn * mask[t];
-            double runningTdError = rewards[t] + discountFactor * previousValue * mask[t] - values.getDouble(t);
-            runningAdvantage = runningTdError + discountFactor * lambdaGae * runningAdvantage * mask[t];
-
-            returns.putScalar(t, runningReturn);
-            previousValue = values.getDouble(t);
-            advantages.putScalar(t, runningAdvantage);
+    private void syncParams(){
+        long start = System.nanoTime();
+        ParamsSnapshot snapshot = global.getParamsSnapshot();
+        if(paramsDirty || snapshot.getVersion() != paramsVersion){
+            INDArray[] params = snapshot.getParams();
+            if(!sharedCritic)
+                critic.getParams().assign(params[0]);
+            actor.getParams().assign(params[1]);
+            paramsVersion = snapshot.getVersion();
+            paramsDirty = false;
         }
+        syncLatency.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Compress the gradients sent to the learner (ASYNC mode), null to send them dense.
+     * @param compressor
+     */
+    public void setGradientCompressor(GradientCompressor compressor){
+        this.compressor = compressor;
+    }
 
-        return new INDArray[]{returns, advantages};
+    private CompressedGradient compress(int slot, INDArray gradient){
+        return compressor.compress(slot, gradient.dup('c').data().asFloat(), gradient.shape());
+    }
+
+    /**
+     * Run the PPO epochs and apply the result to the local networks, the same way the
+     * learner applies a worker gradient to the global ones.
+     */
+    private void localUpdate(INDArray states, INDArray actions, INDArray returns, INDArray advantages,
+                             INDArray oldProbs, INDArray oldLogProbs, INDArray oldValues){
+        if(preUpdateParams == null){
+            preUpdateParams = new INDArray[]{sharedCritic ? null : critic.getParams().dup(), actor.getParams().dup()};
+        }else{
+            if(!sharedCritic)
+                preUpdateParams[0].assign(critic.getParams());
+            preUpdateParams[1].assign(actor.getParams());
+        }
+        INDArray[] g = optimizer.update(actor, critic, states, actions, returns, advantages, oldProbs, oldLogProbs, oldValues);
+        actor.getParams().assign(preUpdateParams[1]);
+        actor.applyGradient(g[1], states.rows());
+        if(!sharedCritic){
+            critic.getParams().assign(preUpdateParams[0]);
+            critic.applyGradient(g[0], states.rows());
+        }
     }
 
     @Override
@@ -0,0 +1,28 @@
+package rldevs4j.agents.ppov2;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * Immutable copy of the global networks parameters published by the learner after each
+ * update. The arrays must not be modified: workers only copy them into their own networks.
+ */
+public class ParamsSnapshot {
+    private final long version;
+    private final INDArray[] params;
+
+    public ParamsSnapshot(long version, INDArray[] params) {
+        this.version = version;
+        this.params = params;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return {critic params, actor params}
+     */
+    public INDArray[] getParams() {
+        return params;
+    }
+}
@@ -0,0 +1,34 @@
+package rldevs4j.agents.ppov2;
+
+/**
+ * Adds a worker while the learner keeps up with the gradients (queue below the low
+ * watermark) and the throughput is still improving, and retires one when gradients pile up
+ * (queue above the high watermark). Watermarks are fractions of the queue capacity.
+ */
+public class QueueDepthController implements WorkerController {
+    private final int minWorkers;
+    private final int maxWorkers;
+    private final double lowWatermark;
+    private final double highWatermark;
+    private double lastStepsPerSecond;
+
+    public QueueDepthController(int minWorkers, int maxWorkers, double lowWatermark, double highWatermark) {
+        this.minWorkers = minWorkers;
+        this.maxWorkers = maxWorkers;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        this.lastStepsPerSecond = 0D;
+    }
+
+    @Override
+    public int targetWorkers(int workers, int queueDepth, int queueCapacity, double stepsPerSecond) {
+        double fill = (double) queueDepth / queueCapacity;
+        boolean improving = stepsPerSecond >= lastStepsPerSecond;
+        lastStepsPerSecond = stepsPerSecond;
+        if(fill > highWatermark && workers > minWorkers)
+            return workers - 1;
+        if(fill < lowWatermark && improving && workers < maxWorkers)
+            return workers + 1;
+        return workers;
+    }
+}
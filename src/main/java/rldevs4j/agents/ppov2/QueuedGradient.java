@@ -0,0 +1,56 @@
+package rldevs4j.agents.ppov2;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import rldevs4j.agents.utils.compression.CompressedGradient;
+
+/**
+ * Worker gradient waiting in the learner queue, dense or compressed. Compressed gradients
+ * are decompressed by the learner when it applies them.
+ */
+public class QueuedGradient {
+    private final INDArray[] gradient;
+    private final CompressedGradient[] compressed;
+    private final int steps;
+    private final long version;
+
+    /**
+     * @param gradient {critic gradient, actor gradient}
+     * @param steps
+     * @param version version of the parameters the gradient was computed with
+     */
+    public QueuedGradient(INDArray[] gradient, int steps, long version) {
+        this(gradient, null, steps, version);
+    }
+
+    public QueuedGradient(CompressedGradient[] compressed, int steps, long version) {
+        this(null, compressed, steps, version);
+    }
+
+    private QueuedGradient(INDArray[] gradient, CompressedGradient[] compressed, int steps, long version) {
+        this.gradient = gradient;
+        this.compressed = compressed;
+        this.steps = steps;
+        this.version = version;
+    }
+
+    /**
+     * @return dense gradient, decompressed if needed
+     */
+    public INDArray[] getGradient() {
+        if(gradient != null)
+            return gradient;
+        INDArray[] dense = new INDArray[compressed.length];
+        for(int i=0;i<compressed.length;i++)
+            dense[i] = Nd4j.create(compressed[i].decompress()).reshape('c', compressed[i].getShape());
+        return dense;
+    }
+
+    public int getSteps() {
+        return steps;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,113 @@
+package rldevs4j.agents.ppov2;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.List;
+
+/**
+ * Trajectory segment collected by a worker, with the behaviour policy outputs and the
+ * advantage estimation needed to run the PPO epochs somewhere else than in the worker.
+ */
+public class Rollout {
+    private final int workerId;
+    private final INDArray states;
+    private final INDArray actions;
+    private final INDArray returns;
+    private final INDArray advantages;
+    private final INDArray probs;
+    private final INDArray logProbs;
+    private final INDArray values;
+
+    public Rollout(
+            int workerId,
+            INDArray states,
+            INDArray actions,
+            INDArray returns,
+            INDArray advantages,
+            INDArray probs,
+            INDArray logProbs,
+            INDArray values) {
+        this.workerId = workerId;
+        this.states = states;
+        this.actions = actions;
+        this.returns = returns;
+        this.advantages = advantages;
+        this.probs = probs;
+        this.logProbs = logProbs;
+        this.values = values;
+    }
+
+    /**
+     * Concatenate the rollouts, row by row, in the given order.
+     * @param rollouts
+     * @return
+     */
+    public static Rollout concat(List<Rollout> rollouts) {
+        if(rollouts.size() == 1)
+            return rollouts.get(0);
+        int n = rollouts.size();
+        INDArray[] states = new INDArray[n];
+        INDArray[] actions = new INDArray[n];
+        INDArray[] returns = new INDArray[n];
+        INDArray[] advantages = new INDArray[n];
+        INDArray[] probs = new INDArray[n];
+        INDArray[] logProbs = new INDArray[n];
+        INDArray[] values = new INDArray[n];
+        for(int i=0;i<n;i++){
+            Rollout r = rollouts.get(i);
+            states[i] = r.states;
+            actions[i] = r.actions;
+            returns[i] = r.returns;
+            advantages[i] = r.advantages;
+            probs[i] = r.probs;
+            logProbs[i] = r.logProbs;
+            values[i] = r.values;
+        }
+        return new Rollout(
+                -1,
+                Nd4j.concat(0, states),
+                Nd4j.concat(0, actions),
+                Nd4j.concat(0, returns),
+                Nd4j.concat(0, advantages),
+                Nd4j.concat(0, probs),
+                Nd4j.concat(0, logProbs),
+                Nd4j.concat(0, values));
+    }
+
+    public int getWorkerId() {
+        return workerId;
+    }
+
+    public int size() {
+        return states.rows();
+    }
+
+    public INDArray getStates() {
+        return states;
+    }
+
+    public INDArray getActions() {
+        return actions;
+    }
+
+    public INDArray getReturns() {
+        return returns;
+    }
+
+    public INDArray getAdvantages() {
+        return advantages;
+    }
+
+    public INDArray getProbs() {
+        return probs;
+    }
+
+    public INDArray getLogProbs() {
+        return logProbs;
+    }
+
+    public INDArray getValues() {
+        return values;
+    }
+}
@@ -0,0 +1,84 @@
+package rldevs4j.agents.ppov2;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * Trajectory segment shipped by a worker in the TRAJECTORY mode: what the learner needs to
+ * estimate the advantages with its own critic and to correct the policy lag with the
+ * behaviour policy outputs.
+ */
+public class Trajectory {
+    private final int workerId;
+    private final long version;
+    private final INDArray states;
+    private final INDArray actions;
+    private final double[] rewards;
+    private final double[] mask;
+    private final INDArray probs;
+    private final INDArray logProbs;
+
+    /**
+     * @param workerId
+     * @param version version of the parameters the behaviour policy had
+     * @param states
+     * @param actions
+     * @param rewards scaled rewards
+     * @param mask 0 where the episode ends, 1 otherwise
+     * @param probs behaviour policy outputs
+     * @param logProbs behaviour policy outputs
+     */
+    public Trajectory(
+            int workerId,
+            long version,
+            INDArray states,
+            INDArray actions,
+            double[] rewards,
+            double[] mask,
+            INDArray probs,
+            INDArray logProbs) {
+        this.workerId = workerId;
+        this.version = version;
+        this.states = states;
+        this.actions = actions;
+        this.rewards = rewards;
+        this.mask = mask;
+        this.probs = probs;
+        this.logProbs = logProbs;
+    }
+
+    public int getWorkerId() {
+        return workerId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return rewards.length;
+    }
+
+    public INDArray getStates() {
+        return states;
+    }
+
+    public INDArray getActions() {
+        return actions;
+    }
+
+    public double[] getRewards() {
+        return rewards;
+    }
+
+    public double[] getMask() {
+        return mask;
+    }
+
+    public INDArray getProbs() {
+        return probs;
+    }
+
+    public INDArray getLogProbs() {
+        return logProbs;
+    }
+}
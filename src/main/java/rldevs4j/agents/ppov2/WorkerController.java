@@ -0,0 +1,16 @@
+package rldevs4j.agents.ppov2;
+
+/**
+ * Decides how many workers an elastic PPO training should run, from the load measured
+ * periodically by the learner.
+ */
+public interface WorkerController {
+    /**
+     * @param workers running workers
+     * @param queueDepth gradients waiting for the learner
+     * @param queueCapacity
+     * @param stepsPerSecond environment steps per second since the previous call
+     * @return number of workers to run
+     */
+    public int targetWorkers(int workers, int queueDepth, int queueCapacity, double stepsPerSecond);
+}
@@ -0,0 +1,177 @@
+package rldevs4j.agents.ppov2.remote;
+
+import rldevs4j.agents.ppov2.PPOLearner;
+import rldevs4j.agents.ppov2.ParamsSnapshot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Exposes a learner to workers running in other processes (see RemoteLearner).
+ * Accepts one connection per worker and serves each one on its own thread. A worker whose
+ * connection is lost, or that does not connect within the accept timeout, is counted as
+ * finished so the learner does not wait for it forever.
+ */
+public class LearnerServer implements AutoCloseable {
+    private final PPOLearner learner;
+    private final ServerSocket serverSocket;
+    private final int workers;
+    private final int acceptTimeoutMs;
+    private final List<Socket> connections;
+    private final Logger logger;
+    private long encodedVersion = -1L;
+    private byte[] encodedParams;
+
+    public LearnerServer(PPOLearner learner, int port, int workers) throws IOException {
+        this(learner, port, workers, 0);
+    }
+
+    /**
+     * @param learner
+     * @param port
+     * @param workers
+     * @param acceptTimeoutMs time for all the workers to connect, 0 to wait forever
+     * @throws IOException
+     */
+    public LearnerServer(PPOLearner learner, int port, int workers, int acceptTimeoutMs) throws IOException {
+        this.learner = learner;
+        this.serverSocket = new ServerSocket(port);
+        this.workers = workers;
+        this.acceptTimeoutMs = acceptTimeoutMs;
+        this.connections = new ArrayList<>();
+        this.logger = Logger.getGlobal();
+    }
+
+    /**
+     * Start accepting the worker connections in background.
+     */
+    public void start() {
+        Thread acceptor = new Thread(this::accept, "learner_server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getLocalPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        long deadline = System.currentTimeMillis() + acceptTimeoutMs;
+        int accepted = 0;
+        try {
+            for(int i=0;i<workers;i++){
+                if(acceptTimeoutMs > 0)
+                    serverSocket.setSoTimeout((int) Math.max(1L, deadline - System.currentTimeMillis()));
+                Socket socket = serverSocket.accept();
+                accepted++;
+                socket.setTcpNoDelay(true);
+                synchronized (connections) {
+                    connections.add(socket);
+                }
+                Thread handler = new Thread(() -> serve(socket), "learner_connection_"+i);
+                handler.setDaemon(true);
+                handler.start();
+            }
+        } catch (SocketTimeoutException e) {
+            logger.log(Level.WARNING, "{0} of {1} remote workers did not connect in {2} ms, counted as finished",
+                    new Object[]{workers - accepted, workers, acceptTimeoutMs});
+            for(int i=accepted;i<workers;i++)
+                learner.workerFinished();
+        } catch (IOException e) {
+            if(!serverSocket.isClosed())
+                logger.log(Level.SEVERE, "Learner server stopped accepting workers", e);
+        }
+    }
+
+    private void serve(Socket socket) {
+        boolean finished = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            while(!finished){
+                byte type = in.readByte();
+                switch(type){
+                    case RemoteProtocol.HELLO:
+                        int workerId = in.readInt();
+                        logger.log(Level.INFO, "Remote worker {0} connected from {1}", new Object[]{workerId, socket.getRemoteSocketAddress()});
+                        out.write(encodedParams(learner.getParamsSnapshot()));
+                        out.flush();
+                        break;
+                    case RemoteProtocol.PULL_PARAMS:
+                        long knownVersion = in.readLong();
+                        ParamsSnapshot snapshot = learner.getParamsSnapshot();
+                        if(snapshot.getVersion() == knownVersion)
+                            out.writeByte(RemoteProtocol.NOT_MODIFIED);
+                        else
+                            out.write(encodedParams(snapshot));
+                        out.flush();
+                        break;
+                    case RemoteProtocol.PUSH_GRADIENT:
+                        long version = in.readLong();
+                        int steps = in.readInt();
+                        learner.enqueueGradient(RemoteProtocol.readArrays(in), steps, version);
+                        break;
+                    case RemoteProtocol.PUSH_COMPRESSED_GRADIENT:
+                        long compressedVersion = in.readLong();
+                        int compressedSteps = in.readInt();
+                        learner.enqueueCompressedGradient(RemoteProtocol.readCompressed(in), compressedSteps, compressedVersion);
+                        break;
+                    case RemoteProtocol.STATS:
+                        learner.saveStatistics(in.readUTF(), in.readInt(), in.readDouble(), in.readLong());
+                        break;
+                    case RemoteProtocol.FINISHED:
+                        finished = true;
+                        break;
+                    default:
+                        throw new IOException("Unknown message type: " + type);
+                }
+            }
+        } catch (EOFException e) {
+            logger.log(Level.WARNING, "Remote worker {0} disconnected before finishing", socket.getRemoteSocketAddress());
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Remote worker connection failed", e);
+        } finally {
+            learner.workerFinished();
+        }
+    }
+
+    /**
+     * PARAMS message of the snapshot, encoded once per version and shared by every connection.
+     * @param snapshot
+     * @return
+     * @throws IOException
+     */
+    private synchronized byte[] encodedParams(ParamsSnapshot snapshot) throws IOException {
+        if(snapshot.getVersion() != encodedVersion){
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(RemoteProtocol.PARAMS);
+            out.writeLong(snapshot.getVersion());
+            RemoteProtocol.writeArrays(out, snapshot.getParams());
+            out.flush();
+            encodedParams = bytes.toByteArray();
+            encodedVersion = snapshot.getVersion();
+        }
+        return encodedParams;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        synchronized (connections) {
+            for(Socket s : connections)
+                s.close();
+        }
+    }
+}
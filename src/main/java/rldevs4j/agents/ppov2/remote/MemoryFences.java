@@ -0,0 +1,58 @@
+package rldevs4j.agents.ppov2.remote;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * Load/store fences for memory shared between processes, where the Java memory model gives
+ * no ordering guarantees. Uses sun.misc.Unsafe when available (Java 8 has no VarHandle),
+ * otherwise falls back to a volatile access, which HotSpot compiles to a full fence.
+ */
+final class MemoryFences {
+    private static final Object UNSAFE;
+    private static final Method LOAD_FENCE;
+    private static final Method STORE_FENCE;
+    private static volatile int fallback;
+
+    static {
+        Object unsafe = null;
+        Method load = null;
+        Method store = null;
+        try {
+            Class<?> c = Class.forName("sun.misc.Unsafe");
+            Field f = c.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            unsafe = f.get(null);
+            load = c.getMethod("loadFence");
+            store = c.getMethod("storeFence");
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            unsafe = null;
+        }
+        UNSAFE = unsafe;
+        LOAD_FENCE = load;
+        STORE_FENCE = store;
+    }
+
+    private MemoryFences() {
+    }
+
+    static void loadFence() {
+        fence(LOAD_FENCE);
+    }
+
+    static void storeFence() {
+        fence(STORE_FENCE);
+    }
+
+    private static void fence(Method m) {
+        if(UNSAFE != null){
+            try {
+                m.invoke(UNSAFE);
+                return;
+            } catch (ReflectiveOperationException e) {
+                // use the fallback
+            }
+        }
+        fallback++;
+    }
+}
@@ -0,0 +1,162 @@
+package rldevs4j.agents.ppov2.remote;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import rldevs4j.agents.ppov2.PPO;
+import rldevs4j.agents.ppov2.PPOLearner;
+import rldevs4j.agents.ppov2.ParamsSnapshot;
+import rldevs4j.agents.utils.compression.CompressedGradient;
+import rldevs4j.agents.utils.metrics.MetricsRegistry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.nio.file.Path;
+
+/**
+ * Worker side proxy of a learner running in another process (see LearnerServer).
+ * Gradients and statistics are sent without waiting for a reply, parameters are pulled
+ * only when the learner has published a newer version. When the learner shares its
+ * parameters through a memory mapped file (see SharedParamsWriter) they are read from the
+ * file instead, into arrays owned by this class that are overwritten on each new version.
+ * Only the ASYNC mode is supported, the other ones need a LocalPPOLearner.
+ */
+public class RemoteLearner implements PPOLearner, AutoCloseable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final SharedParamsReader sharedParams;
+    private final MetricsRegistry metrics;
+    private ParamsSnapshot snapshot;
+
+    public RemoteLearner(String host, int port, int workerId) throws IOException {
+        this(host, port, workerId, null);
+    }
+
+    /**
+     * @param host
+     * @param port
+     * @param workerId
+     * @param sharedParamsFile file the learner publishes the parameters to, null to pull them over TCP
+     * @throws IOException
+     */
+    public RemoteLearner(String host, int port, int workerId, Path sharedParamsFile) throws IOException {
+        this.metrics = new MetricsRegistry("remote_worker_" + workerId);
+        this.socket = new Socket(host, port);
+        this.socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeByte(RemoteProtocol.HELLO);
+        out.writeInt(workerId);
+        out.flush();
+        readParams();
+        this.sharedParams = sharedParamsFile == null ? null : new SharedParamsReader(sharedParamsFile);
+    }
+
+    @Override
+    public PPO.Mode getMode() {
+        return PPO.Mode.ASYNC;
+    }
+
+    /**
+     * Pull the latest parameters from the learner.
+     * @return
+     */
+    @Override
+    public synchronized ParamsSnapshot getParamsSnapshot() {
+        if(sharedParams != null){
+            long version = sharedParams.read(snapshot.getVersion(), snapshot.getParams());
+            if(version != snapshot.getVersion())
+                snapshot = new ParamsSnapshot(version, snapshot.getParams());
+            return snapshot;
+        }
+        try {
+            out.writeByte(RemoteProtocol.PULL_PARAMS);
+            out.writeLong(snapshot.getVersion());
+            out.flush();
+            readParams();
+            return snapshot;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void readParams() throws IOException {
+        byte type = in.readByte();
+        if(type == RemoteProtocol.PARAMS){
+            long version = in.readLong();
+            snapshot = new ParamsSnapshot(version, RemoteProtocol.readArrays(in));
+        }else if(type != RemoteProtocol.NOT_MODIFIED){
+            throw new IOException("Unexpected message type: " + type);
+        }
+    }
+
+    @Override
+    public synchronized void enqueueGradient(INDArray[] gradient, int steps, long version) {
+        try {
+            out.writeByte(RemoteProtocol.PUSH_GRADIENT);
+            out.writeLong(version);
+            out.writeInt(steps);
+            RemoteProtocol.writeArrays(out, gradient);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void enqueueCompressedGradient(CompressedGradient[] gradient, int steps, long version) {
+        try {
+            out.writeByte(RemoteProtocol.PUSH_COMPRESSED_GRADIENT);
+            out.writeLong(version);
+            out.writeInt(steps);
+            RemoteProtocol.writeCompressed(out, gradient);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void saveStatistics(String thread, int episode, double episodeReward, long episodeTime) {
+        try {
+            out.writeByte(RemoteProtocol.STATS);
+            out.writeUTF(thread);
+            out.writeInt(episode);
+            out.writeDouble(episodeReward);
+            out.writeLong(episodeTime);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void workerFinished() {
+        try {
+            out.writeByte(RemoteProtocol.FINISHED);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Metrics of the workers in this process, the learner ones are kept by the learner process.
+     * @return
+     */
+    @Override
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(sharedParams != null)
+            sharedParams.close();
+        socket.close();
+    }
+}
@@ -0,0 +1,91 @@
+package rldevs4j.agents.ppov2.remote;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import rldevs4j.agents.utils.compression.CompressedGradient;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary protocol between remote PPO workers and the learner. Every message starts with
+ * a one byte type. Arrays are sent as rank, shape and the float values in c order.
+ * <pre>
+ * HELLO(workerId)                        -> PARAMS
+ * PUSH_GRADIENT(version, steps, arrays)
+ * PUSH_COMPRESSED_GRADIENT(version, steps, compressed gradients)
+ * PULL_PARAMS(knownVersion)              -> PARAMS(version, arrays) | NOT_MODIFIED
+ * STATS(thread, episode, reward, time)
+ * FINISHED
+ * </pre>
+ */
+public final class RemoteProtocol {
+    public static final byte HELLO = 1;
+    public static final byte PARAMS = 2;
+    public static final byte NOT_MODIFIED = 3;
+    public static final byte PUSH_GRADIENT = 4;
+    public static final byte PULL_PARAMS = 5;
+    public static final byte STATS = 6;
+    public static final byte FINISHED = 7;
+    public static final byte PUSH_COMPRESSED_GRADIENT = 8;
+
+    private RemoteProtocol() {
+    }
+
+    public static void writeFloats(DataOutputStream out, long[] shape, float[] values) throws IOException {
+        out.writeInt(shape.length);
+        for(long d : shape)
+            out.writeLong(d);
+        out.writeInt(values.length);
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * Float.BYTES);
+        buffer.asFloatBuffer().put(values);
+        out.write(buffer.array());
+    }
+
+    public static long[] readShape(DataInputStream in) throws IOException {
+        long[] shape = new long[in.readInt()];
+        for(int i=0;i<shape.length;i++)
+            shape[i] = in.readLong();
+        return shape;
+    }
+
+    public static float[] readFloats(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt() * Float.BYTES];
+        in.readFully(bytes);
+        float[] values = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).asFloatBuffer().get(values);
+        return values;
+    }
+
+    public static void writeCompressed(DataOutputStream out, CompressedGradient[] gradients) throws IOException {
+        out.writeInt(gradients.length);
+        for(CompressedGradient g : gradients)
+            g.write(out);
+    }
+
+    public static CompressedGradient[] readCompressed(DataInputStream in) throws IOException {
+        CompressedGradient[] gradients = new CompressedGradient[in.readInt()];
+        for(int i=0;i<gradients.length;i++)
+            gradients[i] = CompressedGradient.read(in);
+        return gradients;
+    }
+
+    public static void writeArrays(DataOutputStream out, INDArray[] arrays) throws IOException {
+        out.writeInt(arrays.length);
+        for(INDArray a : arrays){
+            INDArray c = a.isView() || a.ordering() != 'c' ? a.dup('c') : a;
+            writeFloats(out, c.shape(), c.data().asFloat());
+        }
+    }
+
+    public static INDArray[] readArrays(DataInputStream in) throws IOException {
+        INDArray[] arrays = new INDArray[in.readInt()];
+        for(int i=0;i<arrays.length;i++){
+            long[] shape = readShape(in);
+            arrays[i] = Nd4j.create(readFloats(in)).reshape('c', shape);
+        }
+        return arrays;
+    }
+}
@@ -0,0 +1,131 @@
+package rldevs4j.agents.ppov2.remote;
+
+import rldevs4j.agents.ppov2.PPOActor;
+import rldevs4j.agents.ppov2.PPOCritic;
+import rldevs4j.agents.ppov2.PPOOptimizer;
+import rldevs4j.agents.ppov2.PPOThread;
+import rldevs4j.agents.ppov2.PPOWorker;
+import rldevs4j.agents.utils.compression.GradientCompressor;
+import rldevs4j.agents.utils.metrics.MetricsExport;
+import rldevs4j.base.agent.preproc.Preprocessing;
+import rldevs4j.base.env.RLEnvironment;
+import rldevs4j.base.env.factory.EnvironmentFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs one PPO worker in this process against a learner started with
+ * PPO.startRemoteTraining in another process. Takes the same params as PPO.
+ * <p>
+ * Multi-process launch: the learner process calls {@code ppo.startRemoteTraining(workers, port)},
+ * then one process per worker id 0..workers-1 runs
+ * <pre>
+ * java -cp &lt;classpath&gt; rldevs4j.agents.ppov2.remote.RemoteWorkerRunner &lt;host&gt; &lt;port&gt; &lt;workerId&gt; &lt;setup class&gt;
+ * </pre>
+ * where the setup class implements {@link Setup} with a public no argument constructor and
+ * builds the runner with the same actor, critic, preprocessing, environment factory and
+ * params as the learner PPO. The learner returns once every worker has finished.
+ * Only TRAINING_MODE ASYNC without CENTRAL_INFERENCE is supported, other params are refused
+ * before the worker is built.
+ */
+public class RemoteWorkerRunner {
+    /**
+     * Builds the runner of a worker process, see main.
+     */
+    public interface Setup {
+        public RemoteWorkerRunner create();
+    }
+
+    private final PPOActor actor;
+    private final PPOCritic critic;
+    private final Preprocessing preprocessing;
+    private final EnvironmentFactory envFactory;
+    private final float discountFactor;
+    private final float lambdaGae;
+    private final int horizon;
+    private final int episodesPerWorker;
+    private final double episodeMaxSimTime;
+    private final float[][] actionSpace;
+    private final boolean debug;
+    private final Path sharedParamsFile;
+    private final Map<String,Object> params;
+
+    public RemoteWorkerRunner(
+            PPOActor actor,
+            PPOCritic critic,
+            Preprocessing preprocessing,
+            EnvironmentFactory envFactory,
+            Map<String,Object> params) {
+        // RemoteLearner only implements the ASYNC operations of a learner
+        if(!"ASYNC".equals(params.getOrDefault("TRAINING_MODE", "ASYNC")))
+            throw new IllegalArgumentException("Remote workers only support the ASYNC training mode.");
+        if((boolean) params.getOrDefault("CENTRAL_INFERENCE", false))
+            throw new IllegalArgumentException("Central inference is not available for remote workers.");
+        this.actor = actor;
+        this.critic = critic;
+        this.preprocessing = preprocessing;
+        this.envFactory = envFactory;
+        this.discountFactor = (float) params.getOrDefault("DISCOUNT_RATE", 0.99D);
+        this.lambdaGae = (float) params.getOrDefault("LAMBDA_GAE", 0.96D);
+        this.horizon = (int) params.getOrDefault("HORIZON", 100);
+        this.episodesPerWorker = (int) params.getOrDefault("EPISODES_WORKER", 10);
+        this.episodeMaxSimTime = (double) params.getOrDefault("SIMULATION_TIME", 3000);
+        this.actionSpace = (float[][]) params.get("ACTION_SPACE");
+        this.debug = (boolean) params.getOrDefault("DEBUG", false);
+        this.params = params;
+        this.sharedParamsFile = params.containsKey("SHARED_PARAMS_FILE") ? Paths.get((String) params.get("SHARED_PARAMS_FILE")) : null;
+    }
+
+    /**
+     * Connect to the learner and run the worker episodes. The worker metrics are written to
+     * METRICS_FILE_&lt;workerId&gt;, so several workers on the same host do not share a file.
+     * @param host
+     * @param port
+     * @param workerId
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void run(String host, int port, int workerId) throws IOException, InterruptedException {
+        Map<String,Object> metricsParams = new HashMap<>(params);
+        if(params.containsKey("METRICS_FILE"))
+            metricsParams.put("METRICS_FILE", params.get("METRICS_FILE") + "_" + workerId);
+        try (RemoteLearner learner = new RemoteLearner(host, port, workerId, sharedParamsFile);
+             MetricsExport metricsExport = new MetricsExport(learner.getMetrics(), metricsParams)) {
+            PPOWorker worker = new PPOWorker(
+                    workerId,
+                    actor,
+                    critic,
+                    learner,
+                    discountFactor,
+                    lambdaGae,
+                    horizon,
+                    PPOOptimizer.fromParams(params),
+                    preprocessing,
+                    actionSpace,
+                    debug);
+            worker.setGradientCompressor(GradientCompressor.fromParams(params, 2));
+            RLEnvironment container = new RLEnvironment(worker, envFactory.createInstance());
+            PPOThread thread = new PPOThread("remote_worker_thread_"+workerId, learner, episodesPerWorker, episodeMaxSimTime, container);
+            thread.start();
+            thread.join();
+        }
+    }
+
+    /**
+     * Run one remote worker: &lt;host&gt; &lt;port&gt; &lt;workerId&gt; &lt;setup class&gt;.
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        if(args.length != 4){
+            System.err.println("Usage: RemoteWorkerRunner <host> <port> <workerId> <setup class>");
+            System.exit(1);
+        }
+        Setup setup = (Setup) Class.forName(args[3]).getDeclaredConstructor().newInstance();
+        setup.create().run(args[0], Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+    }
+}
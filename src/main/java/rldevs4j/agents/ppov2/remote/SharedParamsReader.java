@@ -0,0 +1,99 @@
+package rldevs4j.agents.ppov2.remote;
+
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * Worker side of the shared memory parameter broadcast (see SharedParamsWriter). Maps the
+ * file read only and copies the parameters only when their version has changed.
+ */
+public class SharedParamsReader implements AutoCloseable {
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final FloatBuffer values;
+    private final int[] lengths;
+    private long retries;
+
+    public SharedParamsReader(Path path) throws IOException {
+        this.file = new RandomAccessFile(path.toFile(), "r");
+        this.buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0L, file.length());
+        buffer.order(ByteOrder.nativeOrder());
+        this.lengths = new int[buffer.getInt(SharedParamsWriter.COUNT_OFFSET)];
+        for(int i=0;i<lengths.length;i++)
+            lengths[i] = buffer.getInt(SharedParamsWriter.LENGTHS_OFFSET + i * Integer.BYTES);
+        buffer.position(SharedParamsWriter.dataOffset(lengths.length));
+        this.values = buffer.slice().order(ByteOrder.nativeOrder()).asFloatBuffer();
+        buffer.position(0);
+        this.retries = 0L;
+    }
+
+    /**
+     * @return last published version, -1 if nothing was published yet
+     */
+    public long getVersion() {
+        return buffer.getLong(SharedParamsWriter.VERSION_OFFSET);
+    }
+
+    /**
+     * Copy the shared parameters into dest if their version differs from knownVersion.
+     * Retries while the learner is writing, so the copy is never torn.
+     * @param knownVersion
+     * @param dest arrays with the layout of the learner ones
+     * @return version copied, or knownVersion if nothing was copied
+     */
+    public long read(long knownVersion, INDArray[] dest) {
+        while(true){
+            long seq = buffer.getLong(SharedParamsWriter.SEQ_OFFSET);
+            if((seq & 1L) == 1L){
+                retries++;
+                Thread.yield();
+                continue;
+            }
+            MemoryFences.loadFence();
+            long version = buffer.getLong(SharedParamsWriter.VERSION_OFFSET);
+            if(version == knownVersion || version < 0L)
+                return knownVersion;
+            values.clear();
+            for(int i=0;i<dest.length;i++)
+                copy(dest[i], lengths[i]);
+            MemoryFences.loadFence();
+            if(buffer.getLong(SharedParamsWriter.SEQ_OFFSET) == seq)
+                return version;
+            retries++;
+        }
+    }
+
+    private void copy(INDArray dest, int length) {
+        if(!dest.isView() && dest.dataType() == DataType.FLOAT){
+            FloatBuffer src = values.slice();
+            src.limit(length);
+            dest.data().asNioFloat().put(src);
+            values.position(values.position() + length);
+        }else{
+            float[] tmp = new float[length];
+            values.get(tmp);
+            dest.assign(Nd4j.create(tmp).reshape('c', dest.shape()));
+        }
+    }
+
+    /**
+     * @return number of reads repeated because the learner was writing
+     */
+    public long getRetries() {
+        return retries;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
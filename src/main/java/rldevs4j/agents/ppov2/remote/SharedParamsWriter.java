@@ -0,0 +1,104 @@
+package rldevs4j.agents.ppov2.remote;
+
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import rldevs4j.agents.ppov2.ParamsSnapshot;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * Learner side of the shared memory parameter broadcast for worker processes on the same
+ * host. The published parameters are written once into a memory mapped file, whatever the
+ * number of workers, guarded by a sequence lock.
+ * <pre>
+ * long seq      odd while a write is in progress
+ * long version  parameters version, -1 before the first publish
+ * int  count    number of arrays
+ * int[count]    arrays lengths
+ * float[]       arrays values, 8 byte aligned
+ * </pre>
+ * Read with SharedParamsReader.
+ */
+public class SharedParamsWriter implements AutoCloseable {
+    static final int SEQ_OFFSET = 0;
+    static final int VERSION_OFFSET = 8;
+    static final int COUNT_OFFSET = 16;
+    static final int LENGTHS_OFFSET = 20;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final FloatBuffer values;
+    private final int[] lengths;
+    private long seq;
+
+    /**
+     * Create (or truncate) the file with room for arrays like the given ones.
+     * @param path
+     * @param layout
+     * @throws IOException
+     */
+    public SharedParamsWriter(Path path, INDArray[] layout) throws IOException {
+        this.lengths = new int[layout.length];
+        long total = 0L;
+        for(int i=0;i<layout.length;i++){
+            lengths[i] = (int) layout[i].length();
+            total += lengths[i];
+        }
+        int dataOffset = dataOffset(lengths.length);
+        this.file = new RandomAccessFile(path.toFile(), "rw");
+        file.setLength(0L);
+        file.setLength(dataOffset + total * Float.BYTES);
+        this.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0L, file.length());
+        buffer.order(ByteOrder.nativeOrder());
+        buffer.putLong(SEQ_OFFSET, 0L);
+        buffer.putLong(VERSION_OFFSET, -1L);
+        buffer.putInt(COUNT_OFFSET, lengths.length);
+        for(int i=0;i<lengths.length;i++)
+            buffer.putInt(LENGTHS_OFFSET + i * Integer.BYTES, lengths[i]);
+        buffer.position(dataOffset);
+        this.values = buffer.slice().order(ByteOrder.nativeOrder()).asFloatBuffer();
+        buffer.position(0);
+        this.seq = 0L;
+    }
+
+    static int dataOffset(int count) {
+        int headerSize = LENGTHS_OFFSET + count * Integer.BYTES;
+        return (headerSize + 7) & ~7;
+    }
+
+    /**
+     * Write the snapshot parameters. Single writer: only the learner thread calls this.
+     * @param snapshot
+     */
+    public void publish(ParamsSnapshot snapshot) {
+        INDArray[] params = snapshot.getParams();
+        buffer.putLong(SEQ_OFFSET, ++seq);
+        MemoryFences.storeFence();
+        values.clear();
+        for(int i=0;i<params.length;i++){
+            if(params[i].length() != lengths[i])
+                throw new IllegalArgumentException("Parameters do not match the shared file layout.");
+            if(!params[i].isView() && params[i].dataType() == DataType.FLOAT){
+                FloatBuffer src = params[i].data().asNioFloat();
+                src.limit(lengths[i]);
+                values.put(src);
+            }else{
+                values.put(params[i].dup('c').data().asFloat());
+            }
+        }
+        buffer.putLong(VERSION_OFFSET, snapshot.getVersion());
+        MemoryFences.storeFence();
+        buffer.putLong(SEQ_OFFSET, ++seq);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
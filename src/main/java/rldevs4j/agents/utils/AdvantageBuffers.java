@@ -0,0 +1,95 @@
+package rldevs4j.agents.utils;
+
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+/**
+ * Arrays reused between generalized advantage estimations of INDArray values, so an
+ * estimation does not allocate once the largest batch has been seen. The values are bulk
+ * copied into a float array, estimated with AdvantageEstimation.gae and the results bulk
+ * copied into returns and advantages vectors owned by this class. Not thread safe, one per
+ * worker or learner. The returned arrays are overwritten by the next estimation.
+ */
+public class AdvantageBuffers {
+    private float[] values;
+    private float[] returns;
+    private float[] advantages;
+    private INDArray returnsArray;
+    private INDArray advantagesArray;
+    private final INDArray[] result;
+
+    public AdvantageBuffers(int capacity) {
+        this.result = new INDArray[2];
+        ensureCapacity(capacity);
+    }
+
+    /**
+     * Generalized advantage estimation of a single segment.
+     * @param values critic values, one per step
+     * @param rewards
+     * @param mask 0 where the episode ends, 1 otherwise
+     * @param steps
+     * @param discountFactor
+     * @param lambdaGae
+     * @return {returns, advantages}, valid until the next call
+     */
+    public INDArray[] gae(INDArray values, double[] rewards, double[] mask, int steps, double discountFactor, double lambdaGae) {
+        read(values, steps);
+        AdvantageEstimation.gae(this.values, rewards, mask, steps, discountFactor, lambdaGae, false, returns, advantages);
+        return write(steps);
+    }
+
+    /**
+     * Generalized advantage estimation of consecutive segments.
+     * @param lengths length of each segment, in order
+     * @return {returns, advantages}, valid until the next call
+     */
+    public INDArray[] gae(INDArray values, double[] rewards, double[] mask, int[] lengths, double discountFactor, double lambdaGae) {
+        int steps = 0;
+        for(int l : lengths)
+            steps += l;
+        read(values, steps);
+        AdvantageEstimation.gae(this.values, rewards, mask, lengths, discountFactor, lambdaGae, false, returns, advantages);
+        return write(steps);
+    }
+
+    private void ensureCapacity(int steps) {
+        if(values != null && values.length >= steps)
+            return;
+        values = new float[steps];
+        returns = new float[steps];
+        advantages = new float[steps];
+        returnsArray = Nd4j.create(DataType.FLOAT, steps);
+        advantagesArray = Nd4j.create(DataType.FLOAT, steps);
+    }
+
+    /**
+     * Copy the values in with one bulk copy: straight from the buffer of a float array
+     * that is not a view, through a c ordered copy otherwise.
+     */
+    private void read(INDArray v, int steps) {
+        ensureCapacity(steps);
+        if(!v.isView() && v.ordering() == 'c' && v.dataType() == DataType.FLOAT)
+            v.data().asNioFloat().get(values, 0, steps);
+        else
+            System.arraycopy(v.dup('c').data().asFloat(), 0, values, 0, steps);
+    }
+
+    /**
+     * Copy the results out with one bulk copy each, into the reused vectors.
+     */
+    private INDArray[] write(int steps) {
+        returnsArray.data().setData(returns);
+        advantagesArray.data().setData(advantages);
+        if(steps == values.length){
+            result[0] = returnsArray;
+            result[1] = advantagesArray;
+        }else{
+            result[0] = returnsArray.get(NDArrayIndex.interval(0, steps));
+            result[1] = advantagesArray.get(NDArrayIndex.interval(0, steps));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,146 @@
+package rldevs4j.agents.utils;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Return and advantage estimation over primitive arrays. The core methods write into
+ * arrays given by the caller and do not allocate; the INDArray methods copy the values out
+ * and the results in with one bulk copy each, instead of one native call per step.
+ * Several trajectory segments can be estimated in a single call, each one bootstrapped
+ * with zero at its end.
+ */
+public class AdvantageEstimation {
+    private static final double EPSILON = 1e-8;
+
+    private AdvantageEstimation() {
+    }
+
+    /**
+     * Generalized advantage estimation over consecutive segments.
+     * @param values critic values, one per step
+     * @param rewards
+     * @param mask 0 where the episode ends, 1 otherwise
+     * @param lengths length of each segment, in order; they add up to the steps to estimate
+     * @param discountFactor
+     * @param lambdaGae
+     * @param normalize normalize the advantages to zero mean and unit standard deviation
+     * @param returns output, discounted returns
+     * @param advantages output
+     */
+    public static void gae(float[] values, double[] rewards, double[] mask, int[] lengths,
+                           double discountFactor, double lambdaGae, boolean normalize,
+                           float[] returns, float[] advantages) {
+        estimate(values, rewards, mask, lengths, 0, discountFactor, lambdaGae, normalize, returns, advantages);
+    }
+
+    /**
+     * Generalized advantage estimation of a single segment of the given length.
+     */
+    public static void gae(float[] values, double[] rewards, double[] mask, int length,
+                           double discountFactor, double lambdaGae, boolean normalize,
+                           float[] returns, float[] advantages) {
+        estimate(values, rewards, mask, null, length, discountFactor, lambdaGae, normalize, returns, advantages);
+    }
+
+    private static void estimate(float[] values, double[] rewards, double[] mask, int[] lengths, int length,
+                                 double discountFactor, double lambdaGae, boolean normalize,
+                                 float[] returns, float[] advantages) {
+        int segments = lengths == null ? 1 : lengths.length;
+        int start = 0;
+        double sum = 0D;
+        double sumSquares = 0D;
+        for(int s=0;s<segments;s++){
+            int end = start + (lengths == null ? length : lengths[s]);
+            double runningReturn = 0D;
+            double previousValue = 0D;
+            double runningAdvantage = 0D;
+            for(int t=end-1;t>=start;t--){
+                runningReturn = rewards[t] + discountFactor * runningReturn * mask[t];
+                double runningTdError = rewards[t] + discountFactor * previousValue * mask[t] - values[t];
+                runningAdvantage = runningTdError + discountFactor * lambdaGae * runningAdvantage * mask[t];
+
+                returns[t] = (float) runningReturn;
+                previousValue = values[t];
+                advantages[t] = (float) runningAdvantage;
+                sum += runningAdvantage;
+                sumSquares += runningAdvantage * runningAdvantage;
+            }
+            start = end;
+        }
+        if(normalize && start > 0)
+            normalize(advantages, start, sum, sumSquares);
+    }
+
+    /**
+     * Estimation used by the A3C workers: return r[t] - discount * v[t] * mask[t] and
+     * advantage (sum of the rewards from t to the end) - discount * v[t] * mask[t].
+     * @param values
+     * @param rewards
+     * @param mask
+     * @param length
+     * @param discountFactor
+     * @param returns output
+     * @param advantages output
+     */
+    public static void cumulativeReward(float[] values, double[] rewards, double[] mask, int length,
+                                        double discountFactor, float[] returns, float[] advantages) {
+        double cumReward = 0D;
+        for(int t=length-1;t>=0;t--){
+            cumReward += rewards[t];
+            double discountedValue = discountFactor * values[t] * mask[t];
+            returns[t] = (float) (rewards[t] - discountedValue);
+            advantages[t] = (float) (cumReward - discountedValue);
+        }
+    }
+
+    /**
+     * Generalized advantage estimation of INDArray values.
+     * @param values
+     * @param rewards
+     * @param mask
+     * @param discountFactor
+     * @param lambdaGae
+     * @return {returns, advantages}
+     */
+    public static INDArray[] gae(INDArray values, double[] rewards, double[] mask, double discountFactor, double lambdaGae) {
+        float[] returns = new float[rewards.length];
+        float[] advantages = new float[rewards.length];
+        gae(toFloats(values), rewards, mask, rewards.length, discountFactor, lambdaGae, false, returns, advantages);
+        return new INDArray[]{Nd4j.create(returns), Nd4j.create(advantages)};
+    }
+
+    /**
+     * Generalized advantage estimation of consecutive segments of INDArray values.
+     * @return {returns, advantages}
+     */
+    public static INDArray[] gae(INDArray values, double[] rewards, double[] mask, int[] lengths, double discountFactor, double lambdaGae) {
+        float[] returns = new float[rewards.length];
+        float[] advantages = new float[rewards.length];
+        gae(toFloats(values), rewards, mask, lengths, discountFactor, lambdaGae, false, returns, advantages);
+        return new INDArray[]{Nd4j.create(returns), Nd4j.create(advantages)};
+    }
+
+    /**
+     * A3C estimation of INDArray values, see cumulativeReward.
+     * @return {returns, advantages}
+     */
+    public static INDArray[] cumulativeReward(INDArray values, double[] rewards, double[] mask, double discountFactor) {
+        float[] returns = new float[rewards.length];
+        float[] advantages = new float[rewards.length];
+        cumulativeReward(toFloats(values), rewards, mask, rewards.length, discountFactor, returns, advantages);
+        return new INDArray[]{Nd4j.create(returns), Nd4j.create(advantages)};
+    }
+
+    private static float[] toFloats(INDArray values) {
+        return values.dup('c').data().asFloat();
+    }
+
+    private static void normalize(float[] x, int length, double sum, double sumSquares) {
+        double mean = sum / length;
+        double std = Math.sqrt(Math.max(0D, sumSquares / length - mean * mean));
+        double scale = 1D / (std + EPSILON);
+        for(int i=0;i<length;i++)
+            x[i] = (float) ((x[i] - mean) * scale);
+    }
+}
@@ -1,6 +1,13 @@
 package rldevs4j.agents.utils;
 
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.memory.conf.WorkspaceConfiguration;
+import org.nd4j.linalg.api.memory.enums.AllocationPolicy;
+import org.nd4j.linalg.api.memory.enums.LearningPolicy;
+import org.nd4j.linalg.api.memory.enums.ResetPolicy;
+import org.nd4j.linalg.api.memory.enums.SpillPolicy;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.indexing.BooleanIndexing;
 import org.nd4j.linalg.indexing.conditions.Conditions;
 import org.nd4j.linalg.ops.transforms.Transforms;
@@ -10,7 +17,26 @@ import org.nd4j.linalg.ops.transforms.Transforms;
  * @author Ezequiel Beccaria
  */
 public class AgentUtils {
-    
+    private static final String DECISION_WORKSPACE = "RLDEVS4J_DECISION";
+    private static final WorkspaceConfiguration DECISION_WORKSPACE_CONF = WorkspaceConfiguration.builder()
+            .initialSize(0)
+            .overallocationLimit(0.2)
+            .policyAllocation(AllocationPolicy.OVERALLOCATE)
+            .policyLearning(LearningPolicy.FIRST_LOOP)
+            .policyReset(ResetPolicy.BLOCK_LEFT)
+            .policySpill(SpillPolicy.REALLOCATE)
+            .build();
+
+    /**
+     * Open the calling thread's workspace for single observation decisions. Arrays created
+     * while it is open reuse the same memory on every decision, so they must not be kept
+     * after it is closed.
+     * @return the open workspace, to close with try-with-resources
+     */
+    public static MemoryWorkspace openDecisionWorkspace(){
+        return Nd4j.getWorkspaceManager().getAndActivateWorkspace(DECISION_WORKSPACE_CONF, DECISION_WORKSPACE);
+    }
+
     public static INDArray clamp(INDArray input, double min, double max){
         BooleanIndexing.replaceWhere(input, min, Conditions.lessThan(min));
         BooleanIndexing.replaceWhere(input, max, Conditions.greaterThan(max));
@@ -24,6 +50,20 @@ public class AgentUtils {
         return logSumExp;
     }
 
+    /**
+     * Put each value at its row and the column given by the index of that row, in place.
+     * Used to spread per row values of the taken actions over the action columns.
+     * @param matrix [rows, columns]
+     * @param indices [rows, 1] column indices
+     * @param values [rows, 1]
+     * @return matrix
+     */
+    public static INDArray scatter(INDArray matrix, INDArray indices, INDArray values){
+        for(int i=0;i<matrix.rows();i++)
+            matrix.putScalar(i, indices.getInt(i, 0), values.getDouble(i, 0));
+        return matrix;
+    }
+
     public static float sum(float[] a){
         float sum = 0F;
         for(int i=0;i<a.length;i++)
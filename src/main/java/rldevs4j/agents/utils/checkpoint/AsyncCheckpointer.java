@@ -0,0 +1,157 @@
+package rldevs4j.agents.utils.checkpoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes checkpoints on a background thread so training does not wait for the disk.
+ * Each checkpoint is written into a temporary directory and then renamed to
+ * checkpoint-&lt;n&gt;, so a checkpoint directory is always complete; only the last
+ * keepLast checkpoints are kept. A checkpoint requested while the previous one is still
+ * being written is skipped.
+ */
+public class AsyncCheckpointer implements AutoCloseable {
+    public static final String PREFIX = "checkpoint-";
+
+    /**
+     * Writes the checkpoint files.
+     */
+    public interface Writer {
+        /**
+         * @param path directory to write to, ending with the file separator
+         * @throws IOException
+         */
+        public void write(String path) throws IOException;
+    }
+
+    private final Path directory;
+    private final int keepLast;
+    private final ExecutorService executor;
+    private final AtomicBoolean writing;
+    private final Logger logger;
+    private long sequence;
+    private long skipped;
+
+    public AsyncCheckpointer(Path directory, int keepLast) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.keepLast = keepLast;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "checkpoint_writer");
+            t.setDaemon(true);
+            return t;
+        });
+        this.writing = new AtomicBoolean(false);
+        this.logger = Logger.getGlobal();
+        this.sequence = existingSequence(directory);
+        this.skipped = 0L;
+    }
+
+    /**
+     * Write a checkpoint in background.
+     * @param writer
+     * @return false if the checkpoint was skipped because the previous one is still being written
+     */
+    public synchronized boolean submit(Writer writer) {
+        if(!writing.compareAndSet(false, true)){
+            skipped++;
+            return false;
+        }
+        long n = ++sequence;
+        executor.execute(() -> {
+            try {
+                write(n, writer);
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.SEVERE, "Checkpoint " + n + " failed", e);
+            } finally {
+                writing.set(false);
+            }
+        });
+        return true;
+    }
+
+    private void write(long n, Writer writer) throws IOException {
+        long start = System.nanoTime();
+        Path tmp = Files.createTempDirectory(directory, ".tmp-" + PREFIX + n + "-");
+        try {
+            writer.write(tmp.toString() + File.separator);
+            Files.move(tmp, directory.resolve(PREFIX + n), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            delete(tmp);
+            throw e;
+        }
+        List<Path> checkpoints = checkpoints(directory);
+        for(int i=0;i<checkpoints.size()-keepLast;i++)
+            delete(checkpoints.get(i));
+        logger.log(Level.INFO, "Checkpoint {0} written in {1} ms", new Object[]{n, (System.nanoTime() - start) / 1e6});
+    }
+
+    /**
+     * Checkpoint directories, oldest first.
+     * @param directory
+     * @return
+     * @throws IOException
+     */
+    public static List<Path> checkpoints(Path directory) throws IOException {
+        List<Path> checkpoints = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*")) {
+            for(Path p : stream)
+                if(Files.isDirectory(p) && sequenceOf(p) >= 0L)
+                    checkpoints.add(p);
+        }
+        checkpoints.sort(Comparator.comparingLong(AsyncCheckpointer::sequenceOf));
+        return checkpoints;
+    }
+
+    private static long sequenceOf(Path checkpoint) {
+        try {
+            return Long.parseLong(checkpoint.getFileName().toString().substring(PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    private static long existingSequence(Path directory) throws IOException {
+        List<Path> checkpoints = checkpoints(directory);
+        return checkpoints.isEmpty() ? 0L : sequenceOf(checkpoints.get(checkpoints.size() - 1));
+    }
+
+    private static void delete(Path path) throws IOException {
+        if(Files.isDirectory(path)){
+            List<Path> children = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+                for(Path p : stream)
+                    children.add(p);
+            }
+            for(Path child : children)
+                delete(child);
+        }
+        Files.deleteIfExists(path);
+    }
+
+    public synchronized long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Wait for the checkpoint being written, if any.
+     * @throws InterruptedException
+     */
+    @Override
+    public void close() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+    }
+}
@@ -0,0 +1,130 @@
+package rldevs4j.agents.utils.compression;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Gradient produced by GradientCompressor. Either dense or sparse (indices of the kept
+ * entries), with the values either as floats or quantized to 8 bits with a common scale.
+ */
+public class CompressedGradient {
+    private final long[] shape;
+    private final int length;
+    private final int[] indices;
+    private final float[] values;
+    private final byte[] quantized;
+    private final float scale;
+
+    /**
+     * @param shape shape of the dense gradient
+     * @param length number of entries of the dense gradient
+     * @param indices kept entries, null if dense
+     * @param values kept values, null if quantized
+     * @param quantized kept values quantized, null if not quantized
+     * @param scale value of one quantization step
+     */
+    public CompressedGradient(long[] shape, int length, int[] indices, float[] values, byte[] quantized, float scale) {
+        this.shape = shape;
+        this.length = length;
+        this.indices = indices;
+        this.values = values;
+        this.quantized = quantized;
+        this.scale = scale;
+    }
+
+    /**
+     * @return number of values sent
+     */
+    public int size() {
+        return quantized != null ? quantized.length : values.length;
+    }
+
+    public float value(int i) {
+        return quantized != null ? quantized[i] * scale : values[i];
+    }
+
+    /**
+     * Write the dense gradient into dest.
+     * @param dest array of length getLength()
+     */
+    public void decompress(float[] dest) {
+        if(indices == null){
+            for(int i=0;i<length;i++)
+                dest[i] = value(i);
+        }else{
+            Arrays.fill(dest, 0F);
+            for(int i=0;i<indices.length;i++)
+                dest[indices[i]] = value(i);
+        }
+    }
+
+    public float[] decompress() {
+        float[] dest = new float[length];
+        decompress(dest);
+        return dest;
+    }
+
+    public long[] getShape() {
+        return shape;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getDenseBytes() {
+        return length * Float.BYTES;
+    }
+
+    public int getCompressedBytes() {
+        int bytes = quantized != null ? quantized.length + Float.BYTES : values.length * Float.BYTES;
+        return indices == null ? bytes : bytes + indices.length * Integer.BYTES;
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(shape.length);
+        for(long d : shape)
+            out.writeLong(d);
+        out.writeInt(length);
+        out.writeInt(indices == null ? -1 : indices.length);
+        if(indices != null)
+            for(int i : indices)
+                out.writeInt(i);
+        out.writeBoolean(quantized != null);
+        if(quantized != null){
+            out.writeFloat(scale);
+            out.writeInt(quantized.length);
+            out.write(quantized);
+        }else{
+            out.writeInt(values.length);
+            for(float v : values)
+                out.writeFloat(v);
+        }
+    }
+
+    public static CompressedGradient read(DataInputStream in) throws IOException {
+        long[] shape = new long[in.readInt()];
+        for(int i=0;i<shape.length;i++)
+            shape[i] = in.readLong();
+        int length = in.readInt();
+        int sparse = in.readInt();
+        int[] indices = null;
+        if(sparse >= 0){
+            indices = new int[sparse];
+            for(int i=0;i<sparse;i++)
+                indices[i] = in.readInt();
+        }
+        if(in.readBoolean()){
+            float scale = in.readFloat();
+            byte[] quantized = new byte[in.readInt()];
+            in.readFully(quantized);
+            return new CompressedGradient(shape, length, indices, null, quantized, scale);
+        }
+        float[] values = new float[in.readInt()];
+        for(int i=0;i<values.length;i++)
+            values[i] = in.readFloat();
+        return new CompressedGradient(shape, length, indices, values, null, 0F);
+    }
+}
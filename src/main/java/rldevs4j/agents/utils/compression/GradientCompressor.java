@@ -0,0 +1,155 @@
+package rldevs4j.agents.utils.compression;
+
+import java.util.Map;
+
+/**
+ * Worker side gradient compression with error feedback: whatever a compressed gradient
+ * does not carry (dropped entries, quantization error) is kept in a local residual and
+ * added to the next gradient, so no update is lost, only delayed.
+ * TOP_K: keeps the topKRatio fraction of entries with the largest magnitude.
+ * QUANTIZE: every entry, quantized to 8 bits.
+ * TOP_K_QUANTIZE: both.
+ * One residual per slot (e.g. critic and actor). Not thread safe, one per worker.
+ */
+public class GradientCompressor {
+    public enum Method {TOP_K, QUANTIZE, TOP_K_QUANTIZE}
+
+    private final Method method;
+    private final double topKRatio;
+    private final float[][] residuals;
+    private float[] scratch;
+
+    public GradientCompressor(Method method, double topKRatio, int slots) {
+        if(topKRatio <= 0D || topKRatio > 1D)
+            throw new IllegalArgumentException("Top-k ratio must be in (0, 1].");
+        this.method = method;
+        this.topKRatio = topKRatio;
+        this.residuals = new float[slots][];
+    }
+
+    /**
+     * Compressor configured by GRADIENT_COMPRESSION (NONE, TOP_K, QUANTIZE, TOP_K_QUANTIZE)
+     * and COMPRESSION_TOP_K_RATIO.
+     * @param params
+     * @param slots
+     * @return null when compression is disabled
+     */
+    public static GradientCompressor fromParams(Map<String,Object> params, int slots) {
+        String method = (String) params.getOrDefault("GRADIENT_COMPRESSION", "NONE");
+        if("NONE".equals(method))
+            return null;
+        return new GradientCompressor(Method.valueOf(method), (double) params.getOrDefault("COMPRESSION_TOP_K_RATIO", 0.01D), slots);
+    }
+
+    /**
+     * @param slot residual to use
+     * @param gradient dense gradient values, c order
+     * @param shape
+     * @return
+     */
+    public CompressedGradient compress(int slot, float[] gradient, long[] shape) {
+        int n = gradient.length;
+        if(residuals[slot] == null || residuals[slot].length != n)
+            residuals[slot] = new float[n];
+        float[] r = residuals[slot];
+        for(int i=0;i<n;i++)
+            r[i] += gradient[i];
+
+        int[] indices = null;
+        float[] values;
+        if(method == Method.QUANTIZE){
+            values = r.clone();
+        }else{
+            indices = topK(r, Math.max(1, (int) Math.ceil(n * topKRatio)));
+            values = new float[indices.length];
+            for(int i=0;i<indices.length;i++)
+                values[i] = r[indices[i]];
+        }
+
+        CompressedGradient compressed;
+        if(method == Method.TOP_K){
+            compressed = new CompressedGradient(shape, n, indices, values, null, 0F);
+        }else{
+            float max = 0F;
+            for(float v : values)
+                max = Math.max(max, Math.abs(v));
+            float scale = max / 127F;
+            byte[] quantized = new byte[values.length];
+            if(scale > 0F)
+                for(int i=0;i<values.length;i++)
+                    quantized[i] = (byte) Math.round(values[i] / scale);
+            compressed = new CompressedGradient(shape, n, indices, null, quantized, scale);
+        }
+
+        // error feedback: keep what was not sent
+        for(int i=0;i<compressed.size();i++)
+            r[indices == null ? i : indices[i]] -= compressed.value(i);
+        return compressed;
+    }
+
+    /**
+     * Indices of the k entries with the largest magnitude, in ascending order.
+     * @param values
+     * @param k
+     * @return
+     */
+    int[] topK(float[] values, int k) {
+        int n = values.length;
+        k = Math.min(k, n);
+        if(scratch == null || scratch.length != n)
+            scratch = new float[n];
+        for(int i=0;i<n;i++)
+            scratch[i] = Math.abs(values[i]);
+        float threshold = select(scratch, n - k);
+        int[] indices = new int[k];
+        int above = 0;
+        for(float v : values)
+            if(Math.abs(v) > threshold)
+                above++;
+        int ties = k - above;
+        int j = 0;
+        for(int i=0;i<n && j<k;i++){
+            float a = Math.abs(values[i]);
+            if(a > threshold || (a == threshold && ties-- > 0))
+                indices[j++] = i;
+        }
+        return indices;
+    }
+
+    /**
+     * k-th smallest value (0 based), reorders a.
+     */
+    private static float select(float[] a, int k) {
+        int lo = 0;
+        int hi = a.length - 1;
+        while(lo < hi){
+            float pivot = a[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while(i <= j){
+                while(a[i] < pivot)
+                    i++;
+                while(a[j] > pivot)
+                    j--;
+                if(i <= j){
+                    float t = a[i];
+                    a[i] = a[j];
+                    a[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if(k <= j)
+                hi = j;
+            else if(k >= i)
+                lo = i;
+            else
+                return a[k];
+        }
+        return a[k];
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+}
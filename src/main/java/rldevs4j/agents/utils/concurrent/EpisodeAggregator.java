@@ -0,0 +1,121 @@
+package rldevs4j.agents.utils.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects the episode statistics of the worker threads without locking them: workers
+ * publish an Episode into a MpscRingBuffer and a single aggregator thread hands the
+ * published episodes, in batches, to a handler that owns the results. The handler is
+ * only called from the aggregator thread, so it needs no synchronization.
+ */
+public class EpisodeAggregator implements Runnable {
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final MpscRingBuffer<Episode> buffer;
+    private final Consumer<List<Episode>> handler;
+    private final int maxBatch;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * Episode statistics of a worker.
+     */
+    public static class Episode {
+        private final String thread;
+        private final int episode;
+        private final double reward;
+        private final long time;
+
+        public Episode(String thread, int episode, double reward, long time) {
+            this.thread = thread;
+            this.episode = episode;
+            this.reward = reward;
+            this.time = time;
+        }
+
+        public String getThread() {
+            return thread;
+        }
+
+        public int getEpisode() {
+            return episode;
+        }
+
+        public double getReward() {
+            return reward;
+        }
+
+        public long getTime() {
+            return time;
+        }
+    }
+
+    /**
+     * Create and start the aggregator thread.
+     * @param name thread name
+     * @param handler called with each batch of published episodes, in publication order
+     * @param capacity ring buffer capacity
+     */
+    public EpisodeAggregator(String name, Consumer<List<Episode>> handler, int capacity) {
+        this.buffer = new MpscRingBuffer<>(capacity);
+        this.handler = handler;
+        this.maxBatch = buffer.getCapacity();
+        this.closed = false;
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Publish an episode. Waits only while the buffer is full.
+     * @param episode
+     */
+    public void publish(Episode episode) {
+        while(!buffer.offer(episode)){
+            LockSupport.unpark(thread);
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public void run() {
+        List<Episode> batch = new ArrayList<>(maxBatch);
+        while(true){
+            // read the flag before draining, so nothing published before close is missed
+            boolean last = closed;
+            if(buffer.drainTo(batch, maxBatch) > 0){
+                handle(batch);
+            }else if(last){
+                return;
+            }else{
+                LockSupport.parkNanos(this, IDLE_NANOS);
+            }
+        }
+    }
+
+    private void handle(List<Episode> batch) {
+        try {
+            handler.accept(batch);
+        } catch (RuntimeException e) {
+            Logger.getGlobal().log(Level.SEVERE, "Episode statistics handler failed", e);
+        }
+        batch.clear();
+    }
+
+    /**
+     * Handle the episodes still in the buffer and stop the aggregator thread. Every
+     * episode published before this call has been handled when it returns.
+     * @throws InterruptedException
+     */
+    public void close() throws InterruptedException {
+        closed = true;
+        LockSupport.unpark(thread);
+        thread.join();
+    }
+}
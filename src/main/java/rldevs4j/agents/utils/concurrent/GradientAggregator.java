@@ -0,0 +1,93 @@
+package rldevs4j.agents.utils.concurrent;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.List;
+
+/**
+ * Reduces a window of queued worker gradients into one gradient per network, so the
+ * learner applies a single update instead of one update per gradient.
+ * The reduction buffers are allocated once and reused between applies.
+ */
+public class GradientAggregator {
+    private INDArray[] buffers;
+    private long applies;
+    private long gradients;
+    private long steps;
+    private long applyNanos;
+
+    /**
+     * Weights proportional to the batch size of each gradient, scaled so they add up to
+     * the number of gradients. With equal batch sizes every weight is 1 and the reduction
+     * is the plain sum, same as applying the gradients one by one.
+     * @param steps
+     * @return
+     */
+    public static double[] stepWeights(int[] steps) {
+        double total = 0D;
+        for(int s : steps)
+            total += s;
+        double[] weights = new double[steps.length];
+        for(int i=0;i<steps.length;i++)
+            weights[i] = total > 0D ? steps.length * steps[i] / total : 1D;
+        return weights;
+    }
+
+    /**
+     * Weighted sum of the gradients, network by network.
+     * @param gradients one array per worker gradient, with one entry per network
+     * @param weights
+     * @return reduced gradient per network. Owned by the aggregator, valid until the next call.
+     */
+    public INDArray[] reduce(List<INDArray[]> gradients, double[] weights) {
+        INDArray[] first = gradients.get(0);
+        if(gradients.size() == 1 && weights[0] == 1D)
+            return first;
+        if(buffers == null || buffers.length != first.length)
+            buffers = new INDArray[first.length];
+        for(int n=0;n<first.length;n++){
+            if(buffers[n] == null || buffers[n].length() != first[n].length())
+                buffers[n] = Nd4j.zeros(first[n].shape());
+            buffers[n].assign(first[n]).muli(weights[0]);
+            for(int i=1;i<gradients.size();i++){
+                INDArray g = gradients.get(i)[n];
+                Nd4j.getBlasWrapper().level1().axpy(g.length(), weights[i], g, buffers[n]);
+            }
+        }
+        return buffers;
+    }
+
+    /**
+     * Record the statistics of an applied update.
+     * @param gradientCount
+     * @param stepCount
+     * @param nanos
+     */
+    public synchronized void record(int gradientCount, int stepCount, long nanos) {
+        applies++;
+        gradients += gradientCount;
+        steps += stepCount;
+        applyNanos += nanos;
+    }
+
+    public synchronized long getApplies() {
+        return applies;
+    }
+
+    public synchronized long getGradients() {
+        return gradients;
+    }
+
+    public synchronized long getSteps() {
+        return steps;
+    }
+
+    public synchronized double getAverageGradientsPerApply() {
+        return applies == 0 ? 0D : (double) gradients / applies;
+    }
+
+    public synchronized double getAverageApplyMillis() {
+        return applies == 0 ? 0D : applyNanos / 1e6 / applies;
+    }
+}
@@ -0,0 +1,96 @@
+package rldevs4j.agents.utils.concurrent;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock free queue for many producers and a single consumer. Each slot carries a
+ * sequence number telling whether it is free for the producer claiming that position or
+ * holds an element ready for the consumer, so producers only contend on the CAS of the
+ * tail and never block each other or the consumer.
+ * @param <E>
+ */
+public class MpscRingBuffer<E> {
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail;
+    private long head;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public MpscRingBuffer(int capacity) {
+        if(capacity < 1)
+            throw new IllegalArgumentException("Ring buffer capacity must be greater than zero.");
+        int size = Integer.highestOneBit(capacity);
+        if(size < capacity)
+            size <<= 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for(int i=0;i<size;i++)
+            sequences.set(i, i);
+        this.mask = size - 1;
+        this.tail = new AtomicLong();
+        this.head = 0L;
+    }
+
+    /**
+     * Add an element. Any thread.
+     * @param e
+     * @return false if the buffer is full
+     */
+    public boolean offer(E e) {
+        while(true){
+            long t = tail.get();
+            int i = (int) (t & mask);
+            long diff = sequences.get(i) - t;
+            if(diff == 0L){
+                if(tail.compareAndSet(t, t + 1)){
+                    elements.lazySet(i, e);
+                    sequences.set(i, t + 1);
+                    return true;
+                }
+            }else if(diff < 0L){
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Remove the oldest element. Consumer thread only.
+     * @return null if there is no element ready
+     */
+    public E poll() {
+        int i = (int) (head & mask);
+        if(sequences.get(i) != head + 1)
+            return null;
+        E e = elements.get(i);
+        elements.lazySet(i, null);
+        sequences.set(i, head + mask + 1);
+        head++;
+        return e;
+    }
+
+    /**
+     * Move up to maxElements ready elements to c. Consumer thread only.
+     * @param c
+     * @param maxElements
+     * @return number of elements transferred
+     */
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        int n = 0;
+        E e;
+        while(n < maxElements && (e = poll()) != null){
+            c.add(e);
+            n++;
+        }
+        return n;
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+}
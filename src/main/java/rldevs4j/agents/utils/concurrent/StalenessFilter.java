@@ -0,0 +1,80 @@
+package rldevs4j.agents.utils.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Decides how much a gradient counts according to its staleness, the number of parameter
+ * versions published between the one the worker used to compute it and the current one.
+ * ACCEPT: full weight. DOWNWEIGHT: weight 1/(1+staleness), dropped beyond maxStaleness.
+ * DROP: full weight, dropped beyond maxStaleness.
+ * Also keeps a histogram of the observed staleness.
+ */
+public class StalenessFilter {
+    public enum Policy {ACCEPT, DOWNWEIGHT, DROP}
+
+    public static final int HISTOGRAM_BUCKETS = 32;
+
+    private final Policy policy;
+    private final int maxStaleness;
+    private final AtomicLongArray histogram;
+    private final AtomicLong dropped;
+
+    public StalenessFilter(Policy policy, int maxStaleness) {
+        this.policy = policy;
+        this.maxStaleness = maxStaleness;
+        this.histogram = new AtomicLongArray(HISTOGRAM_BUCKETS + 1);
+        this.dropped = new AtomicLong();
+    }
+
+    /**
+     * Record the staleness of a gradient and return its weight.
+     * @param staleness
+     * @return weight of the gradient, 0 if it has to be dropped
+     */
+    public double weight(long staleness) {
+        histogram.incrementAndGet((int) Math.min(Math.max(staleness, 0L), HISTOGRAM_BUCKETS));
+        if(policy != Policy.ACCEPT && staleness > maxStaleness){
+            dropped.incrementAndGet();
+            return 0D;
+        }
+        if(policy == Policy.DOWNWEIGHT)
+            return 1D / (1D + Math.max(staleness, 0L));
+        return 1D;
+    }
+
+    /**
+     * @return gradient count per staleness, the last bucket counts staleness >= HISTOGRAM_BUCKETS
+     */
+    public long[] getHistogram() {
+        long[] h = new long[histogram.length()];
+        for(int i=0;i<h.length;i++)
+            h[i] = histogram.get(i);
+        return h;
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Non empty histogram buckets as "staleness:count" pairs.
+     * @return
+     */
+    public String histogramToString() {
+        StringBuilder sb = new StringBuilder("{");
+        for(int i=0;i<histogram.length();i++){
+            long count = histogram.get(i);
+            if(count == 0)
+                continue;
+            if(sb.length() > 1)
+                sb.append(", ");
+            sb.append(i == HISTOGRAM_BUCKETS ? ">=" + i : String.valueOf(i)).append(':').append(count);
+        }
+        return sb.append('}').toString();
+    }
+}
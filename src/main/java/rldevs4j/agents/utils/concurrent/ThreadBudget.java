@@ -0,0 +1,94 @@
+package rldevs4j.agents.utils.concurrent;
+
+import org.nd4j.nativeblas.NativeOpsHolder;
+
+/**
+ * Splits the cores between the simulation workers and the service threads (learner,
+ * central inference), so the ND4J intra-op threads of every thread together do not
+ * oversubscribe the machine. Each service thread gets at least one core and every worker
+ * the same share of the remaining ones; the cores left over go to the services.
+ */
+public class ThreadBudget {
+    private final int cores;
+    private final int workers;
+    private final int services;
+    private final int workerThreads;
+    private final int serviceThreads;
+
+    /**
+     * @param cores cores available for training
+     * @param workers simulation worker threads
+     * @param services threads other than the workers running ND4J ops
+     */
+    public ThreadBudget(int cores, int workers, int services) {
+        if(cores < 1 || workers < 1 || services < 0)
+            throw new IllegalArgumentException("Invalid thread budget: cores="+cores+", workers="+workers+", services="+services);
+        this.cores = cores;
+        this.workers = workers;
+        this.services = services;
+        int available = Math.max(1, cores - services);
+        this.workerThreads = Math.max(1, available / workers);
+        int leftover = Math.max(0, available - workers * workerThreads);
+        this.serviceThreads = services == 0 ? 0 : 1 + leftover / services;
+    }
+
+    /**
+     * Set the number of ND4J intra-op (OpenMP) threads used by the ops the calling thread runs.
+     * @param threads
+     */
+    public static void applyToCurrentThread(int threads) {
+        if(threads > 0)
+            NativeOpsHolder.getInstance().getDeviceNativeOps().setOmpNumThreads(threads);
+    }
+
+    /**
+     * Wrap a task so it sets its ND4J threads before running.
+     * @param task
+     * @param threads
+     * @return
+     */
+    public static Runnable withThreads(Runnable task, int threads) {
+        return () -> {
+            applyToCurrentThread(threads);
+            task.run();
+        };
+    }
+
+    public int getCores() {
+        return cores;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public int getServices() {
+        return services;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public int getServiceThreads() {
+        return serviceThreads;
+    }
+
+    /**
+     * @return total ND4J threads planned
+     */
+    public int getPlannedThreads() {
+        return workers * workerThreads + services * serviceThreads;
+    }
+
+    public boolean isOversubscribed() {
+        return getPlannedThreads() > cores;
+    }
+
+    @Override
+    public String toString() {
+        return "Thread budget: " + cores + " cores, " + workers + " workers x " + workerThreads + " ND4J threads, "
+                + services + " service threads x " + serviceThreads + " ND4J threads"
+                + (isOversubscribed() ? " (oversubscribed: " + getPlannedThreads() + " threads)" : "");
+    }
+}
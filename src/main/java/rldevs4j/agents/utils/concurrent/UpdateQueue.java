@@ -0,0 +1,225 @@
+package rldevs4j.agents.utils.concurrent;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded blocking queue between the workers (producers) and the learner thread (consumer).
+ * When the queue is full a producer either waits for free space (BLOCK) or evicts the
+ * oldest queued element (DROP_OLDEST). Closing the queue wakes up the consumer, which
+ * drains the remaining elements and then receives null.
+ * @param <E>
+ */
+public class UpdateQueue<E> {
+    public enum Policy {BLOCK, DROP_OLDEST}
+
+    private final ArrayDeque<E> elements;
+    private final int capacity;
+    private final Policy policy;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+    private boolean closed;
+    private long dropped;
+    private int maxDepth;
+
+    public UpdateQueue(int capacity, Policy policy) {
+        if(capacity < 1)
+            throw new IllegalArgumentException("Queue capacity must be greater than zero.");
+        this.elements = new ArrayDeque<>(capacity);
+        this.capacity = capacity;
+        this.policy = policy;
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.notFull = lock.newCondition();
+        this.closed = false;
+        this.dropped = 0;
+        this.maxDepth = 0;
+    }
+
+    /**
+     * Add an element applying the backpressure policy when the queue is full.
+     * @param e
+     * @return false if the queue was closed and the element discarded
+     * @throws InterruptedException
+     */
+    public boolean put(E e) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while(!closed && elements.size() == capacity){
+                if(policy == Policy.DROP_OLDEST){
+                    elements.pollFirst();
+                    dropped++;
+                }else{
+                    notFull.await();
+                }
+            }
+            if(closed)
+                return false;
+            elements.addLast(e);
+            maxDepth = Math.max(maxDepth, elements.size());
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until an element is available or the queue is closed.
+     * @return next element, or null if the queue is closed and empty
+     * @throws InterruptedException
+     */
+    public E take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while(elements.isEmpty() && !closed)
+                notEmpty.await();
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait up to timeout for an element.
+     * @param timeout
+     * @param unit
+     * @return next element, or null on timeout or if the queue is closed and empty
+     * @throws InterruptedException
+     */
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while(elements.isEmpty() && !closed){
+                if(nanos <= 0L)
+                    return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Move up to maxElements queued elements to c without blocking.
+     * @param c
+     * @param maxElements
+     * @return number of elements transferred
+     */
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        lock.lock();
+        try {
+            int n = 0;
+            while(n < maxElements && !elements.isEmpty()){
+                c.add(elements.pollFirst());
+                n++;
+            }
+            if(n > 0)
+                notFull.signalAll();
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait for the next element and then collect up to maxElements: the elements already
+     * queued plus the ones that arrive before the window elapses.
+     * @param c
+     * @param maxElements
+     * @param window time to wait for more elements after the first one, zero to not wait
+     * @param unit
+     * @return number of elements transferred, zero if the queue is closed and empty
+     * @throws InterruptedException
+     */
+    public int takeBatch(Collection<? super E> c, int maxElements, long window, TimeUnit unit) throws InterruptedException {
+        E first = take();
+        if(first == null)
+            return 0;
+        c.add(first);
+        int n = 1 + drainTo(c, maxElements - 1);
+        long deadline = System.nanoTime() + unit.toNanos(window);
+        while(n < maxElements){
+            long remaining = deadline - System.nanoTime();
+            if(remaining <= 0L)
+                break;
+            E e = poll(remaining, TimeUnit.NANOSECONDS);
+            if(e == null)
+                break;
+            c.add(e);
+            n += 1 + drainTo(c, maxElements - n - 1);
+        }
+        return n;
+    }
+
+    /**
+     * Stop accepting elements and wake up every waiting thread.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private E dequeue() {
+        E e = elements.pollFirst();
+        if(e != null)
+            notFull.signal();
+        return e;
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return elements.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public int getMaxDepth() {
+        lock.lock();
+        try {
+            return maxDepth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -38,7 +38,55 @@ public class Categorical implements Distribution{
                 logits = logits.reshape(1, -1);
             this.logits = logits.sub(AgentUtils.logSumExp(logits));
         }
-        rnd = Nd4j.getRandomFactory().getNewRandomInstance();
+        // the calling thread's generator, a new native one per distribution is costly
+        rnd = Nd4j.getRandom();
+    }
+
+    /**
+     * Sample an index of a single row of probabilities without allocating, for the
+     * one observation decision path. The probabilities do not need to be normalized.
+     * @param probs row of non negative probabilities
+     * @param rnd
+     * @return sampled index
+     */
+    public static int sampleIndex(INDArray probs, Random rnd) {
+        int n = (int) probs.length();
+        double total = 0D;
+        for(int j=0;j<n;j++)
+            total += prob(probs, j);
+        double u = rnd.nextDouble() * total;
+        double cum = 0D;
+        int last = 0;
+        for(int j=0;j<n;j++){
+            double p = prob(probs, j);
+            if(p <= 0D)
+                continue;
+            cum += p;
+            if(cum > u)
+                return j;
+            last = j;
+        }
+        // rounding left u above the last cumulative value
+        return last;
+    }
+
+    /**
+     * Log probability of a category with the given probability, clamped the same way the
+     * distribution clamps its probabilities.
+     * @param prob
+     * @return
+     */
+    public static double logProb(double prob) {
+        double eps = Nd4j.EPS_THRESHOLD;
+        return Math.log(Math.min(Math.max(prob, eps), 1 - eps));
+    }
+
+    private static double prob(INDArray probs, int j) {
+        // view buffers already start at the view offset
+        long stride = probs.elementWiseStride();
+        if(stride > 0)
+            return probs.data().getDouble(j * stride);
+        return probs.getDouble(j);
     }
 
     @Override
@@ -56,19 +104,29 @@ public class Categorical implements Distribution{
         return Nd4j.create(sample);
     }
 
+    /**
+     * Log probability of the sampled categories. A column of category indices gives one
+     * log probability per row, gathered without building the full log matrix; a one hot
+     * matrix gives the log probabilities masked by it.
+     * @param sample [batch, 1] category indices or [batch, categories] one hot rows
+     * @return [batch, 1] or [batch, categories]
+     */
     @Override
     public INDArray logProb(INDArray sample) {
         if(sample.rank()==1)
             sample = sample.reshape(-1, 1);
+        INDArray p = logits != null ? logits : probs;
+        if(sample.columns() == 1 && p.columns() > 1){
+            INDArray output = Nd4j.create(sample.rows(), 1);
+            for(int i=0;i<sample.rows();i++){
+                int idx = sample.getInt(i, 0);
+                output.putScalar(i, 0, logits != null ? logits.getDouble(i, idx) : Math.log(probs.getDouble(i, idx)));
+            }
+            return output;
+        }
         if(logits==null){
             logits = Transforms.log(probs);
         }
-//        float[][] output = new float[probs.rows()][1];
-//        for(int i=0;i<probs.rows();i++){
-//            int idx = sample.getInt(i, 0);
-//            output[i][0] = logits.getFloat(i, idx);
-//        }
-//        return Nd4j.create(output);
         return logits.mul(sample);
     }
 
@@ -0,0 +1,13 @@
+package rldevs4j.agents.utils.inference;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.List;
+
+/**
+ * Policy evaluated over a batch of observations, one row per observation.
+ * @param <A> action type
+ */
+public interface BatchedPolicy<A> {
+    public List<A> act(INDArray observations);
+}
@@ -0,0 +1,35 @@
+package rldevs4j.agents.utils.inference;
+
+/**
+ * Discrete action sampled by the inference service, with the behaviour policy outputs it
+ * was sampled from, so the worker does not evaluate its own copy of the policy again.
+ */
+public class DiscreteDecision {
+    private final int action;
+    private final float[] probs;
+    private final double logProb;
+
+    public DiscreteDecision(int action, float[] probs, double logProb) {
+        this.action = action;
+        this.probs = probs;
+        this.logProb = logProb;
+    }
+
+    public int getAction() {
+        return action;
+    }
+
+    /**
+     * @return probabilities of every action
+     */
+    public float[] getProbs() {
+        return probs;
+    }
+
+    /**
+     * @return log probability of the sampled action
+     */
+    public double getLogProb() {
+        return logProb;
+    }
+}
@@ -0,0 +1,116 @@
+package rldevs4j.agents.utils.inference;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import rldevs4j.agents.utils.concurrent.UpdateQueue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Central inference thread shared by the workers. Pending observations are collected
+ * until maxBatchSize is reached or maxWait elapses, evaluated with one batched forward
+ * pass and the sampled actions handed back to each worker through a future.
+ * @param <A> action type
+ */
+public class InferenceService<A> implements Runnable {
+    private static class Request<A> {
+        private final INDArray observation;
+        private final CompletableFuture<A> action;
+
+        private Request(INDArray observation) {
+            this.observation = observation;
+            this.action = new CompletableFuture<>();
+        }
+    }
+
+    private final BatchedPolicy<A> policy;
+    private final UpdateQueue<Request<A>> requests;
+    private final int maxBatchSize;
+    private final long maxWaitMicros;
+    private INDArray batchBuffer;
+    private long batches;
+    private long evaluated;
+    private final Logger logger;
+
+    public InferenceService(BatchedPolicy<A> policy, int maxBatchSize, long maxWaitMicros) {
+        this.policy = policy;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitMicros = maxWaitMicros;
+        this.requests = new UpdateQueue<>(Math.max(maxBatchSize, 1) * 4, UpdateQueue.Policy.BLOCK);
+        this.logger = Logger.getGlobal();
+    }
+
+    /**
+     * Queue an observation for the next batch.
+     * @param observation
+     * @return future completed with the sampled action
+     */
+    public CompletableFuture<A> submit(INDArray observation) {
+        Request<A> request = new Request<>(observation);
+        try {
+            if(!requests.put(request))
+                request.action.completeExceptionally(new IllegalStateException("Inference service is shut down."));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            request.action.completeExceptionally(e);
+        }
+        return request.action;
+    }
+
+    /**
+     * Queue an observation and wait for its action.
+     * @param observation
+     * @return
+     */
+    public A act(INDArray observation) {
+        return submit(observation).join();
+    }
+
+    /**
+     * Stop the service once the already queued requests have been served.
+     */
+    public void shutdown() {
+        requests.close();
+    }
+
+    @Override
+    public void run() {
+        List<Request<A>> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while(requests.takeBatch(batch, maxBatchSize, maxWaitMicros, TimeUnit.MICROSECONDS) > 0){
+                serve(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.log(Level.INFO, "Inference service finished. Batches: {0}. Avg batch size: {1}",
+                new Object[]{batches, batches == 0 ? 0D : (double) evaluated / batches});
+    }
+
+    private void serve(List<Request<A>> batch) {
+        try {
+            int n = batch.size();
+            int obsDim = (int) batch.get(0).observation.length();
+            if(batchBuffer == null || batchBuffer.columns() != obsDim)
+                batchBuffer = Nd4j.create(maxBatchSize, obsDim);
+            for(int i=0;i<n;i++)
+                batchBuffer.putRow(i, batch.get(i).observation);
+            INDArray observations = n == maxBatchSize ? batchBuffer : batchBuffer.get(NDArrayIndex.interval(0, n), NDArrayIndex.all());
+            List<A> actions = policy.act(observations);
+            for(int i=0;i<n;i++)
+                batch.get(i).action.complete(actions.get(i));
+            batches++;
+            evaluated += n;
+        } catch (RuntimeException e) {
+            for(Request<A> r : batch)
+                r.action.completeExceptionally(e);
+        }
+    }
+}
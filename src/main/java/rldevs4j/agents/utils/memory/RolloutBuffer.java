@@ -0,0 +1,211 @@
+package rldevs4j.agents.utils.memory;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.util.Arrays;
+
+/**
+ * Fixed capacity rollout storage for on-policy agents. Observations, actions, log
+ * probabilities and values are kept in preallocated matrices, one row per step, written in
+ * place as the agent acts; the training methods receive views of the filled rows instead
+ * of copies. Storage is allocated on the first step, when the observation and action sizes
+ * are known.
+ * A step is started when the agent acts (startStep and setAction) and ended when its
+ * reward is known, on the next decision (endStep). Views are valid until the next clear.
+ */
+public class RolloutBuffer {
+    private final int capacity;
+    private INDArray observations;
+    private INDArray[] observationRows;
+    private INDArray actions;
+    private INDArray probs;
+    private INDArray[] probRows;
+    private final INDArray logProbs;
+    private final INDArray values;
+    private final double[] rewards;
+    private final double[] mask;
+    private int size;
+    private boolean pending;
+
+    public RolloutBuffer(int capacity) {
+        if(capacity < 1)
+            throw new IllegalArgumentException("Rollout buffer capacity must be greater than zero.");
+        this.capacity = capacity;
+        this.logProbs = Nd4j.zeros(capacity, 1);
+        this.values = Nd4j.zeros(capacity, 1);
+        this.rewards = new double[capacity];
+        this.mask = new double[capacity];
+        this.size = 0;
+        this.pending = false;
+    }
+
+    /**
+     * Start a step with the observation the agent acts on.
+     * @param observation
+     */
+    public void startStep(INDArray observation) {
+        if(size == capacity)
+            throw new IllegalStateException("Rollout buffer is full.");
+        if(observations == null){
+            observations = Nd4j.zeros(capacity, observation.length());
+            observationRows = rowViews(observations);
+        }
+        observationRows[size].assign(observation);
+        pending = true;
+    }
+
+    /**
+     * Store the discrete action of the started step as its index, in a single column.
+     * @param action
+     */
+    public void setAction(int action) {
+        if(actions == null)
+            actions = Nd4j.zeros(capacity, 1);
+        actions.putScalar(size, 0, action);
+    }
+
+    /**
+     * Store the action of the started step.
+     * @param action
+     */
+    public void setAction(float[] action) {
+        if(actions == null)
+            actions = Nd4j.zeros(capacity, action.length);
+        for(int j=0;j<action.length;j++)
+            actions.putScalar(size, j, action[j]);
+    }
+
+    /**
+     * Row of the started step behaviour action probabilities, for the actor to write in place.
+     * @param categories number of discrete actions
+     * @return [1, categories] view
+     */
+    public INDArray getStepProbs(int categories) {
+        if(probs == null){
+            probs = Nd4j.zeros(capacity, categories);
+            probRows = rowViews(probs);
+        }
+        return probRows[size];
+    }
+
+    /**
+     * Store the behaviour policy log probability of the started step action.
+     * @param logProb
+     */
+    public void setLogProb(double logProb) {
+        logProbs.putScalar(size, 0, logProb);
+    }
+
+    /**
+     * Store the critic value of the started step observation.
+     * @param value
+     */
+    public void setValue(double value) {
+        values.putScalar(size, 0, value);
+    }
+
+    /**
+     * End the started step.
+     * @param reward
+     * @param done
+     */
+    public void endStep(double reward, boolean done) {
+        if(!pending)
+            throw new IllegalStateException("No step started.");
+        rewards[size] = reward;
+        mask[size] = done ? 0D : 1D;
+        size++;
+        pending = false;
+    }
+
+    /**
+     * @return true if a step has been started and not ended yet
+     */
+    public boolean hasPendingStep() {
+        return pending;
+    }
+
+    /**
+     * Remove the ended steps. A started step is kept, as the first one.
+     */
+    public void clear() {
+        if(pending && size > 0){
+            observations.putRow(0, observations.getRow(size));
+            if(actions != null)
+                actions.putRow(0, actions.getRow(size));
+            if(probs != null)
+                probs.putRow(0, probs.getRow(size));
+            logProbs.putScalar(0, 0, logProbs.getDouble(size, 0));
+            values.putScalar(0, 0, values.getDouble(size, 0));
+        }
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public INDArray getObservations() {
+        return rows(observations);
+    }
+
+    public INDArray getActions() {
+        return rows(actions);
+    }
+
+    public INDArray getProbs() {
+        return rows(probs);
+    }
+
+    public INDArray getLogProbs() {
+        return rows(logProbs);
+    }
+
+    public INDArray getValues() {
+        return rows(values);
+    }
+
+    /**
+     * @return copy of the ended steps rewards
+     */
+    public double[] getRewards() {
+        return Arrays.copyOf(rewards, size);
+    }
+
+    /**
+     * @return copy of the ended steps masks, 0 where the episode ends, 1 otherwise
+     */
+    public double[] getMask() {
+        return Arrays.copyOf(mask, size);
+    }
+
+    /**
+     * Row views of the storage, created once so writing a step does not create views.
+     */
+    private INDArray[] rowViews(INDArray storage) {
+        INDArray[] views = new INDArray[capacity];
+        for(int i=0;i<capacity;i++)
+            views[i] = storage.getRow(i, true);
+        return views;
+    }
+
+    private INDArray rows(INDArray storage) {
+        if(size == capacity)
+            return storage;
+        return storage.get(NDArrayIndex.interval(0, size), NDArrayIndex.all());
+    }
+}
@@ -0,0 +1,26 @@
+package rldevs4j.agents.utils.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic counter, striped so concurrent increments from many threads do not contend.
+ */
+public class Counter {
+    private final LongAdder adder = new LongAdder();
+
+    public void inc() {
+        adder.increment();
+    }
+
+    public void add(long n) {
+        adder.add(n);
+    }
+
+    public long get() {
+        return adder.sum();
+    }
+
+    public void reset() {
+        adder.reset();
+    }
+}
@@ -0,0 +1,8 @@
+package rldevs4j.agents.utils.metrics;
+
+/**
+ * Value read when the metrics are exported.
+ */
+public interface Gauge {
+    public double value();
+}
@@ -0,0 +1,67 @@
+package rldevs4j.agents.utils.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of non negative values (e.g. latencies in nanoseconds) over power of two
+ * buckets: bucket i counts the values in [2^(i-1), 2^i). Recording is lock free and
+ * striped; quantiles are estimated from the bucket upper bounds.
+ */
+public class Histogram {
+    public static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets;
+    private final LongAdder count;
+    private final LongAdder sum;
+
+    public Histogram() {
+        this.buckets = new LongAdder[BUCKETS];
+        for(int i=0;i<BUCKETS;i++)
+            buckets[i] = new LongAdder();
+        this.count = new LongAdder();
+        this.sum = new LongAdder();
+    }
+
+    public void record(long value) {
+        long v = Math.max(0L, value);
+        buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(v))].increment();
+        count.increment();
+        sum.add(v);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public double getMean() {
+        long n = count.sum();
+        return n == 0L ? 0D : (double) sum.sum() / n;
+    }
+
+    /**
+     * @param q quantile in [0, 1]
+     * @return upper bound of the bucket the quantile falls in, 0 if empty
+     */
+    public long getQuantile(double q) {
+        long[] counts = new long[BUCKETS];
+        long total = 0L;
+        for(int i=0;i<BUCKETS;i++){
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if(total == 0L)
+            return 0L;
+        long rank = (long) Math.ceil(q * total);
+        long seen = 0L;
+        for(int i=0;i<BUCKETS;i++){
+            seen += counts[i];
+            if(seen >= rank && counts[i] > 0)
+                return i == 0 ? 0L : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+        }
+        return Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,28 @@
+package rldevs4j.agents.utils.metrics;
+
+import javax.management.ObjectName;
+import java.util.Map;
+
+/**
+ * Exports a registry as configured by the params: METRICS_JMX (default true) registers it
+ * in JMX, METRICS_FILE writes it every METRICS_INTERVAL_MS (default 10000) to
+ * METRICS_FILE.prom and METRICS_FILE.csv.
+ */
+public class MetricsExport implements AutoCloseable {
+    private final ObjectName jmxName;
+    private final MetricsFileExporter fileExporter;
+
+    public MetricsExport(MetricsRegistry registry, Map<String,Object> params) {
+        this.jmxName = (boolean) params.getOrDefault("METRICS_JMX", true) ? MetricsMBean.register(registry) : null;
+        String file = (String) params.get("METRICS_FILE");
+        this.fileExporter = file == null ? null
+                : new MetricsFileExporter(registry, file, (int) params.getOrDefault("METRICS_INTERVAL_MS", 10000));
+    }
+
+    @Override
+    public void close() {
+        if(fileExporter != null)
+            fileExporter.close();
+        MetricsMBean.unregister(jmxName);
+    }
+}
@@ -0,0 +1,71 @@
+package rldevs4j.agents.utils.metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Periodically writes a registry snapshot to &lt;file&gt;.prom (Prometheus text format,
+ * replaced atomically so a scraper never reads a partial file) and appends it to
+ * &lt;file&gt;.csv as timestamp,metric,value rows.
+ */
+public class MetricsFileExporter implements AutoCloseable {
+    private final MetricsRegistry registry;
+    private final Path prometheusFile;
+    private final Path csvFile;
+    private final ScheduledExecutorService executor;
+    private final Logger logger;
+
+    public MetricsFileExporter(MetricsRegistry registry, String file, long intervalMs) {
+        this.registry = registry;
+        this.prometheusFile = Paths.get(file + ".prom");
+        this.csvFile = Paths.get(file + ".csv");
+        this.logger = Logger.getGlobal();
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics_exporter");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleAtFixedRate(this::export, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Write the current snapshot.
+     */
+    public synchronized void export() {
+        try {
+            Path tmp = prometheusFile.resolveSibling(prometheusFile.getFileName() + ".tmp");
+            Files.write(tmp, registry.toPrometheus().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, prometheusFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            long timestamp = System.currentTimeMillis();
+            StringBuilder sb = new StringBuilder();
+            if(!Files.exists(csvFile))
+                sb.append("timestamp,metric,value\n");
+            for(Map.Entry<String, Double> e : registry.snapshot().entrySet())
+                sb.append(timestamp).append(',').append(e.getKey()).append(',').append(e.getValue()).append('\n');
+            Files.write(csvFile, sb.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Metrics export failed", e);
+        }
+    }
+
+    /**
+     * Stop the periodic export and write a last snapshot.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        export();
+    }
+}
@@ -0,0 +1,101 @@
+package rldevs4j.agents.utils.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Read only JMX view of a MetricsRegistry, one attribute per snapshot value, registered
+ * as rldevs4j:type=Metrics,name=&lt;registry name&gt;.
+ */
+public class MetricsMBean implements DynamicMBean {
+    private final MetricsRegistry registry;
+
+    public MetricsMBean(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Register the registry in the platform MBean server, replacing a previous registration
+     * with the same name.
+     * @param registry
+     * @return registered name, null if the registration failed
+     */
+    public static ObjectName register(MetricsRegistry registry) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("rldevs4j:type=Metrics,name=" + ObjectName.quote(registry.getName()));
+            if(server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(new MetricsMBean(registry), name);
+            return name;
+        } catch (Exception e) {
+            Logger.getGlobal().log(Level.WARNING, "Metrics JMX registration failed", e);
+            return null;
+        }
+    }
+
+    public static void unregister(ObjectName name) {
+        if(name == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (Exception e) {
+            Logger.getGlobal().log(Level.WARNING, "Metrics JMX unregistration failed", e);
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Double value = registry.snapshot().get(attribute);
+        if(value == null)
+            throw new AttributeNotFoundException(attribute);
+        return value;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) {
+        throw new UnsupportedOperationException("Metrics are read only.");
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Double> snapshot = registry.snapshot();
+        AttributeList list = new AttributeList();
+        for(String a : attributes)
+            if(snapshot.containsKey(a))
+                list.add(new Attribute(a, snapshot.get(a)));
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException("No operations.");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Double> snapshot = registry.snapshot();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot.size()];
+        int i = 0;
+        for(String a : snapshot.keySet())
+            attributes[i++] = new MBeanAttributeInfo(a, Double.class.getName(), a, true, false, false);
+        return new MBeanInfo(getClass().getName(), "Training metrics " + registry.getName(),
+                attributes, null, new MBeanOperationInfo[0], null);
+    }
+}
@@ -0,0 +1,88 @@
+package rldevs4j.agents.utils.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Named counters, histograms and gauges of a training run. Metrics are created on first
+ * use; callers keep the returned instance so recording does not go through the map.
+ */
+public class MetricsRegistry {
+    private final String name;
+    private final ConcurrentMap<String, Counter> counters;
+    private final ConcurrentMap<String, Histogram> histograms;
+    private final ConcurrentMap<String, Gauge> gauges;
+
+    public MetricsRegistry(String name) {
+        this.name = name;
+        this.counters = new ConcurrentHashMap<>();
+        this.histograms = new ConcurrentHashMap<>();
+        this.gauges = new ConcurrentHashMap<>();
+    }
+
+    public Counter counter(String metric) {
+        return counters.computeIfAbsent(metric, k -> new Counter());
+    }
+
+    public Histogram histogram(String metric) {
+        return histograms.computeIfAbsent(metric, k -> new Histogram());
+    }
+
+    public void gauge(String metric, Gauge gauge) {
+        gauges.put(metric, gauge);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Current value of every metric, sorted by name. Histograms are expanded into
+     * _count, _sum, _mean, _p50 and _p99 values.
+     * @return
+     */
+    public Map<String, Double> snapshot() {
+        Map<String, Double> values = new TreeMap<>();
+        for(Map.Entry<String, Counter> e : counters.entrySet())
+            values.put(e.getKey(), (double) e.getValue().get());
+        for(Map.Entry<String, Gauge> e : gauges.entrySet())
+            values.put(e.getKey(), e.getValue().value());
+        for(Map.Entry<String, Histogram> e : histograms.entrySet()){
+            Histogram h = e.getValue();
+            values.put(e.getKey() + "_count", (double) h.getCount());
+            values.put(e.getKey() + "_sum", (double) h.getSum());
+            values.put(e.getKey() + "_mean", h.getMean());
+            values.put(e.getKey() + "_p50", (double) h.getQuantile(0.5D));
+            values.put(e.getKey() + "_p99", (double) h.getQuantile(0.99D));
+        }
+        return values;
+    }
+
+    /**
+     * Snapshot in the Prometheus text exposition format, metric names prefixed with the
+     * registry name.
+     * @return
+     */
+    public String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        Map<String, String> types = new LinkedHashMap<>();
+        for(String c : counters.keySet())
+            types.put(c, "counter");
+        for(String g : gauges.keySet())
+            types.put(g, "gauge");
+        for(Map.Entry<String, Double> e : snapshot().entrySet()){
+            String metric = sanitize(name + "_" + e.getKey());
+            String type = types.getOrDefault(e.getKey(), "gauge");
+            sb.append("# TYPE ").append(metric).append(' ').append(type).append('\n');
+            sb.append(metric).append(' ').append(e.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    static String sanitize(String metric) {
+        return metric.replaceAll("[^a-zA-Z0-9_:]", "_");
+    }
+}
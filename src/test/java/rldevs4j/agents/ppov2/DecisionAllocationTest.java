@@ -0,0 +1,152 @@
+package rldevs4j.agents.ppov2;
+
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.rng.Random;
+import org.nd4j.linalg.factory.Nd4j;
+import rldevs4j.agents.utils.compression.CompressedGradient;
+import rldevs4j.agents.utils.distribution.Categorical;
+import rldevs4j.agents.utils.metrics.MetricsRegistry;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Heap bytes allocated per decision, measured on the calling thread.
+ */
+class DecisionAllocationTest {
+    private static final int WARMUP = 2000;
+    private static final int STEPS = 5000;
+    /**
+     * Heap bytes per forward pass: the graph output bookkeeping (workspace manager, output
+     * array wrappers). The arrays themselves live in the decision workspace.
+     */
+    private static final long DECISION_BYTES = 16 * 1024;
+    /**
+     * Decision plus the action event the worker returns, the rollout rows are written in place.
+     */
+    private static final long WORKER_STEP_BYTES = DECISION_BYTES + 1024;
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Test
+    void sampleIndexDoesNotAllocate(){
+        INDArray probs = Nd4j.create(new float[]{0.1F, 0.0F, 0.2F, 0.7F}, new int[]{1, 4});
+        Random rnd = Nd4j.getRandom();
+        int[] counts = new int[4];
+        for(int i=0;i<WARMUP;i++)
+            counts[Categorical.sampleIndex(probs, rnd)]++;
+        long before = allocatedBytes();
+        for(int i=0;i<STEPS;i++)
+            counts[Categorical.sampleIndex(probs, rnd)]++;
+        long perStep = (allocatedBytes() - before) / STEPS;
+
+        assertEquals(0, counts[1]);
+        assertTrue(counts[3] > counts[2] && counts[2] > counts[0]);
+        assertTrue(perStep < 16, "sampleIndex allocated " + perStep + " bytes per step");
+    }
+
+    @Test
+    void actionAllocatesLessThanDistributionSample(){
+        FFDiscreteActor actor = new FFDiscreteActor(4, 3, 1e-3, 1e-4, 0.01F, 0.2F, 16, Activation.TANH, null);
+        INDArray obs = Nd4j.create(new float[]{0.5F, -0.5F, 1F, 0F});
+        for(int i=0;i<WARMUP;i++){
+            actor.action(obs);
+            distributionSample(actor, obs);
+        }
+
+        long before = allocatedBytes();
+        for(int i=0;i<STEPS;i++){
+            int action = actor.action(obs);
+            assertTrue(action >= 0 && action < 3);
+        }
+        long actionPerStep = (allocatedBytes() - before) / STEPS;
+
+        before = allocatedBytes();
+        for(int i=0;i<STEPS;i++)
+            distributionSample(actor, obs);
+        long samplePerStep = (allocatedBytes() - before) / STEPS;
+
+        assertTrue(actionPerStep < DECISION_BYTES, "action allocated " + actionPerStep + " bytes per step");
+        assertTrue(actionPerStep < samplePerStep,
+                "action allocated " + actionPerStep + " bytes per step, distribution sample " + samplePerStep);
+    }
+
+    @Test
+    void workerObservationToActionIsBounded(){
+        FFActorCritic actorCritic = new FFActorCritic(4, 3, 1e-3, 1e-4, 0.01F, 0.2F, 0.5F, 16, Activation.TANH, null);
+        // the rollout never fills, so no step trains
+        PPOWorker worker = new PPOWorker(0, actorCritic, actorCritic.getCritic(), new SnapshotLearner(actorCritic),
+                0.99F, 0.95F, WARMUP + STEPS + 1, new PPOOptimizer(1, 0.01F), null, new float[][]{{0F}, {1F}, {2F}}, false);
+        INDArray obs = Nd4j.create(new float[]{0.5F, -0.5F, 1F, 0F});
+        for(int i=0;i<WARMUP;i++)
+            worker.act(obs, 0D, false);
+
+        long before = allocatedBytes();
+        for(int i=0;i<STEPS;i++)
+            worker.act(obs, 1D, false);
+        long perStep = (allocatedBytes() - before) / STEPS;
+
+        assertTrue(perStep < WORKER_STEP_BYTES, "worker step allocated " + perStep + " bytes");
+    }
+
+    /**
+     * Decision path before the reused input row, workspace and sampleIndex.
+     */
+    private int distributionSample(FFDiscreteActor actor, INDArray obs){
+        INDArray prob = actor.getModel().output(obs.reshape(1, obs.length()))[0];
+        return new Categorical(prob).sample().getInt(0);
+    }
+
+    private long allocatedBytes(){
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * ASYNC learner that only publishes the initial parameters of a network.
+     */
+    private static class SnapshotLearner implements PPOLearner {
+        private final ParamsSnapshot snapshot;
+        private final MetricsRegistry metrics = new MetricsRegistry("allocation");
+
+        SnapshotLearner(FFActorCritic actorCritic) {
+            this.snapshot = new ParamsSnapshot(0L, new INDArray[]{
+                    actorCritic.getCritic().getParams().dup(), actorCritic.getParams().dup()});
+        }
+
+        @Override
+        public PPO.Mode getMode() {
+            return PPO.Mode.ASYNC;
+        }
+
+        @Override
+        public ParamsSnapshot getParamsSnapshot() {
+            return snapshot;
+        }
+
+        @Override
+        public void enqueueGradient(INDArray[] gradient, int steps, long version) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void enqueueCompressedGradient(CompressedGradient[] gradient, int steps, long version) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void saveStatistics(String thread, int episode, double episodeReward, long episodeTime) {
+        }
+
+        @Override
+        public void workerFinished() {
+        }
+
+        @Override
+        public MetricsRegistry getMetrics() {
+            return metrics;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package rldevs4j.agents.ppov2;
+
+import org.deeplearning4j.nn.gradient.Gradient;
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FFActorCriticTest {
+    private final FFActorCritic actorCritic = new FFActorCritic(4, 3, 1e-3, 1e-4, 0.01F, 0.2F, 0.5F, 8, Activation.TANH, null);
+
+    @Test
+    void criticParamsAreTheValueHeadOfTheSharedVector() {
+        PPOCritic critic = actorCritic.getCritic();
+        assertEquals(8 + 1, critic.getParams().length());
+        actorCritic.getParams().assign(0.25D);
+        assertEquals(0.25D, critic.getParams().getDouble(0), 1e-6);
+        critic.setParams(Nd4j.zeros(1, 9));
+        long length = actorCritic.getParams().length();
+        assertEquals(0.25D * (length - 9), actorCritic.getParams().sumNumber().doubleValue(), 1e-3);
+    }
+
+    @Test
+    void decisionValueMatchesCriticOutput() {
+        INDArray obs = Nd4j.create(new float[]{0.5F, -0.5F, 1F, 0F});
+        INDArray probs = Nd4j.zeros(1, 3);
+        int action = actorCritic.action(obs, probs);
+        assertTrue(action >= 0 && action < 3);
+        assertEquals(1D, probs.sumNumber().doubleValue(), 1e-5);
+        double expected = actorCritic.getCritic().output(obs.reshape(1, 4)).getDouble(0);
+        assertEquals(expected, actorCritic.lastValue(), 1e-5);
+        assertEquals(expected, actorCritic.getCritic().value(obs), 1e-5);
+    }
+
+    @Test
+    void combinedGradientCoversWholeNetwork() {
+        // without l2 the value head only gets a gradient from the value loss
+        FFActorCritic network = new FFActorCritic(4, 3, 1e-3, 0D, 0.01F, 0.2F, 0.5F, 8, Activation.TANH, null);
+        INDArray states = Nd4j.rand(5, 4);
+        INDArray actions = Nd4j.create(new float[][]{{0}, {2}, {1}, {1}, {0}});
+        INDArray probs = network.getModel().output(states)[0];
+        INDArray logProbs = network.output(states, actions)[2];
+        INDArray returns = Nd4j.create(new float[]{1F, 0F, -1F, 0.5F, 2F});
+        INDArray advantages = Nd4j.create(new float[]{0.1F, -0.2F, 0.3F, 0F, 1F});
+
+        Gradient g = network.gradient(states, actions, advantages, probs, logProbs, null, returns);
+        assertEquals(network.getParams().length(), g.gradient().length());
+        assertTrue(absSum(g.getGradientFor("value_W")) > 0D);
+        assertTrue(absSum(g.getGradientFor("value_b")) > 0D);
+        assertTrue(absSum(g.getGradientFor("h1_W")) > 0D);
+        assertTrue(absSum(g.getGradientFor("policy_W")) > 0D);
+
+        g = network.gradient(states, actions, advantages, probs, logProbs, null, null);
+        assertEquals(0D, absSum(g.getGradientFor("value_W")), 0D);
+        assertEquals(0D, absSum(g.getGradientFor("value_b")), 0D);
+        assertTrue(absSum(g.getGradientFor("h1_W")) > 0D);
+    }
+
+    private static double absSum(INDArray a) {
+        return a.norm1Number().doubleValue();
+    }
+}
@@ -0,0 +1,29 @@
+package rldevs4j.agents.ppov2;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueueDepthControllerTest {
+
+    @Test
+    void growWhileLearnerKeepsUp() {
+        QueueDepthController controller = new QueueDepthController(1, 3, 0.1D, 0.5D);
+        assertEquals(3, controller.targetWorkers(2, 0, 100, 100D));
+        assertEquals(3, controller.targetWorkers(3, 0, 100, 200D));
+    }
+
+    @Test
+    void holdWhenThroughputDrops() {
+        QueueDepthController controller = new QueueDepthController(1, 8, 0.1D, 0.5D);
+        assertEquals(3, controller.targetWorkers(2, 0, 100, 100D));
+        assertEquals(3, controller.targetWorkers(3, 0, 100, 50D));
+    }
+
+    @Test
+    void shrinkWhenGradientsPileUp() {
+        QueueDepthController controller = new QueueDepthController(1, 8, 0.1D, 0.5D);
+        assertEquals(3, controller.targetWorkers(4, 60, 100, 100D));
+        assertEquals(1, controller.targetWorkers(1, 100, 100, 100D));
+    }
+}
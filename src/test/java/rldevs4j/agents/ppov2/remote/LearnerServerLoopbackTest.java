@@ -0,0 +1,132 @@
+package rldevs4j.agents.ppov2.remote;
+
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import rldevs4j.agents.ppov2.PPO;
+import rldevs4j.agents.ppov2.PPOLearner;
+import rldevs4j.agents.ppov2.ParamsSnapshot;
+import rldevs4j.agents.utils.compression.CompressedGradient;
+import rldevs4j.agents.utils.metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * LearnerServer and two RemoteLearner clients over a loopback connection.
+ */
+class LearnerServerLoopbackTest {
+
+    @Test
+    void twoWorkersPullParamsPushGradientsAndFinish() throws Exception {
+        RecordingLearner learner = new RecordingLearner(2);
+        learner.publish(0L, 1F);
+        try (LearnerServer server = new LearnerServer(learner, 0, 2)) {
+            server.start();
+            try (RemoteLearner first = new RemoteLearner("localhost", server.getLocalPort(), 0);
+                 RemoteLearner second = new RemoteLearner("localhost", server.getLocalPort(), 1)) {
+                // HELLO answers with the published parameters
+                ParamsSnapshot hello = first.getParamsSnapshot();
+                assertEquals(0L, hello.getVersion());
+                assertEquals(1F, hello.getParams()[1].getFloat(0), 0F);
+                // same version, the learner answers NOT_MODIFIED and the snapshot is kept
+                assertSame(hello, first.getParamsSnapshot());
+
+                learner.publish(1L, 2F);
+                ParamsSnapshot pulled = second.getParamsSnapshot();
+                assertEquals(1L, pulled.getVersion());
+                assertEquals(2F, pulled.getParams()[0].getFloat(0), 0F);
+                assertEquals(2F, pulled.getParams()[1].getFloat(2), 0F);
+
+                first.enqueueGradient(new INDArray[]{Nd4j.create(new float[]{0.5F}), Nd4j.create(new float[]{1F, 2F, 3F})}, 7, 0L);
+                second.enqueueGradient(new INDArray[]{Nd4j.create(new float[]{-0.5F}), Nd4j.create(new float[]{4F, 5F, 6F})}, 9, 1L);
+                first.workerFinished();
+                second.workerFinished();
+
+                assertTrue(learner.finished.await(10, TimeUnit.SECONDS));
+            }
+        }
+        assertEquals(2, learner.gradients.size());
+        int totalSteps = 0;
+        for(Object[] g : learner.gradients){
+            INDArray[] arrays = (INDArray[]) g[0];
+            int steps = (int) g[1];
+            long version = (long) g[2];
+            totalSteps += steps;
+            assertEquals(steps == 7 ? 0L : 1L, version);
+            assertEquals(steps == 7 ? 0.5F : -0.5F, arrays[0].getFloat(0), 0F);
+            assertEquals(steps == 7 ? 3F : 6F, arrays[1].getFloat(2), 0F);
+        }
+        assertEquals(16, totalSteps);
+    }
+
+    @Test
+    void workersMissingAfterAcceptTimeoutAreFinished() throws Exception {
+        RecordingLearner learner = new RecordingLearner(2);
+        learner.publish(0L, 1F);
+        try (LearnerServer server = new LearnerServer(learner, 0, 2, 200)) {
+            server.start();
+            try (RemoteLearner worker = new RemoteLearner("localhost", server.getLocalPort(), 0)) {
+                worker.workerFinished();
+                assertTrue(learner.finished.await(10, TimeUnit.SECONDS));
+            }
+        }
+    }
+
+    /**
+     * Learner that records the pushed gradients and counts the finished workers.
+     */
+    private static class RecordingLearner implements PPOLearner {
+        private final List<Object[]> gradients = new ArrayList<>();
+        private final CountDownLatch finished;
+        private final MetricsRegistry metrics = new MetricsRegistry("loopback");
+        private volatile ParamsSnapshot snapshot;
+
+        RecordingLearner(int workers) {
+            this.finished = new CountDownLatch(workers);
+        }
+
+        void publish(long version, float value) {
+            snapshot = new ParamsSnapshot(version, new INDArray[]{
+                    Nd4j.valueArrayOf(new long[]{1, 1}, value), Nd4j.valueArrayOf(new long[]{1, 3}, value)});
+        }
+
+        @Override
+        public PPO.Mode getMode() {
+            return PPO.Mode.ASYNC;
+        }
+
+        @Override
+        public ParamsSnapshot getParamsSnapshot() {
+            return snapshot;
+        }
+
+        @Override
+        public synchronized void enqueueGradient(INDArray[] gradient, int steps, long version) {
+            gradients.add(new Object[]{gradient, steps, version});
+        }
+
+        @Override
+        public void enqueueCompressedGradient(CompressedGradient[] gradient, int steps, long version) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void saveStatistics(String thread, int episode, double episodeReward, long episodeTime) {
+        }
+
+        @Override
+        public void workerFinished() {
+            finished.countDown();
+        }
+
+        @Override
+        public MetricsRegistry getMetrics() {
+            return metrics;
+        }
+    }
+}
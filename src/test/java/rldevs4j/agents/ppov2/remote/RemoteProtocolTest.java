@@ -0,0 +1,30 @@
+package rldevs4j.agents.ppov2.remote;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RemoteProtocolTest {
+
+    @Test
+    void floatsRoundTrip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        RemoteProtocol.writeFloats(out, new long[]{1, 3}, new float[]{1.5F, -2F, 0F});
+        RemoteProtocol.writeFloats(out, new long[]{0}, new float[0]);
+        out.flush();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertArrayEquals(new long[]{1, 3}, RemoteProtocol.readShape(in));
+        assertArrayEquals(new float[]{1.5F, -2F, 0F}, RemoteProtocol.readFloats(in));
+        assertArrayEquals(new long[]{0}, RemoteProtocol.readShape(in));
+        assertEquals(0, RemoteProtocol.readFloats(in).length);
+        assertEquals(-1, in.read());
+    }
+}
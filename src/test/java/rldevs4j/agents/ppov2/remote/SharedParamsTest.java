@@ -0,0 +1,113 @@
+package rldevs4j.agents.ppov2.remote;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import rldevs4j.agents.ppov2.ParamsSnapshot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Sequence lock of the shared parameters file, SharedParamsWriter and SharedParamsReader.
+ */
+class SharedParamsTest {
+    private static final int CRITIC = 64;
+    private static final int ACTOR = 4096;
+    private Path path;
+
+    @BeforeEach
+    void createFile() throws IOException {
+        path = Files.createTempFile("shared_params", ".bin");
+    }
+
+    @AfterEach
+    void deleteFile() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    @Test
+    void writeThenReadRoundTrip() throws IOException {
+        INDArray critic = Nd4j.linspace(1, CRITIC, CRITIC).reshape(1, CRITIC);
+        INDArray actor = Nd4j.linspace(-1, -ACTOR, ACTOR).reshape(1, ACTOR);
+        try (SharedParamsWriter writer = new SharedParamsWriter(path, new INDArray[]{critic, actor});
+             SharedParamsReader reader = new SharedParamsReader(path)) {
+            assertEquals(-1L, reader.getVersion());
+            writer.publish(new ParamsSnapshot(3L, new INDArray[]{critic, actor}));
+
+            INDArray[] dest = layout(0F);
+            assertEquals(3L, reader.read(-1L, dest));
+            assertEquals(3L, reader.getVersion());
+            assertArrayEquals(critic.toFloatVector(), dest[0].toFloatVector(), 0F);
+            assertArrayEquals(actor.toFloatVector(), dest[1].toFloatVector(), 0F);
+        }
+    }
+
+    @Test
+    void unchangedVersionIsNotCopied() throws IOException {
+        try (SharedParamsWriter writer = new SharedParamsWriter(path, layout(0F));
+             SharedParamsReader reader = new SharedParamsReader(path)) {
+            writer.publish(new ParamsSnapshot(5L, layout(1F)));
+            INDArray[] dest = layout(-7F);
+            assertEquals(5L, reader.read(5L, dest));
+            assertEquals(-7F, dest[0].minNumber().floatValue(), 0F);
+            assertEquals(-7F, dest[0].maxNumber().floatValue(), 0F);
+            assertEquals(-7F, dest[1].minNumber().floatValue(), 0F);
+            assertEquals(-7F, dest[1].maxNumber().floatValue(), 0F);
+        }
+    }
+
+    @Test
+    void readersNeverSeeTornParameters() throws Exception {
+        int readers = 4;
+        long versions = 2000L;
+        AtomicBoolean done = new AtomicBoolean(false);
+        AtomicReference<String> failure = new AtomicReference<>();
+        try (SharedParamsWriter writer = new SharedParamsWriter(path, layout(0F))) {
+            writer.publish(new ParamsSnapshot(0L, layout(0F)));
+            List<Thread> threads = new ArrayList<>(readers);
+            for(int r=0;r<readers;r++){
+                Thread t = new Thread(() -> {
+                    try (SharedParamsReader reader = new SharedParamsReader(path)) {
+                        INDArray[] dest = layout(-1F);
+                        long known = -1L;
+                        while(!done.get() && failure.get() == null){
+                            long version = reader.read(known, dest);
+                            if(version == known)
+                                continue;
+                            // every value of a consistent copy is its version
+                            for(INDArray a : dest)
+                                if(a.minNumber().floatValue() != version || a.maxNumber().floatValue() != version)
+                                    failure.compareAndSet(null, "Torn read of version " + version + ": "
+                                            + a.minNumber() + ".." + a.maxNumber());
+                            known = version;
+                        }
+                    } catch (IOException e) {
+                        failure.compareAndSet(null, e.toString());
+                    }
+                }, "shared_params_reader_" + r);
+                threads.add(t);
+                t.start();
+            }
+            for(long v=1L;v<=versions;v++)
+                writer.publish(new ParamsSnapshot(v, layout(v)));
+            done.set(true);
+            for(Thread t : threads)
+                t.join();
+        }
+        assertNull(failure.get(), failure.get());
+    }
+
+    private static INDArray[] layout(float value) {
+        return new INDArray[]{Nd4j.valueArrayOf(new long[]{1, CRITIC}, value), Nd4j.valueArrayOf(new long[]{1, ACTOR}, value)};
+    }
+}
@@ -0,0 +1,102 @@
+package rldevs4j.agents.utils;
+
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdvantageEstimationTest {
+    float delta = 1e-5F;
+
+    @Test
+    void gae() {
+        float[] values = {0.5F, 1F, 2F};
+        double[] rewards = {1D, 0D, 2D};
+        double[] mask = {1D, 1D, 0D};
+        float[] returns = new float[3];
+        float[] advantages = new float[3];
+        AdvantageEstimation.gae(values, rewards, mask, 3, 0.9D, 0.5D, false, returns, advantages);
+        // t=2: done, return 2, td 2-2=0
+        // t=1: return 0.9*2=1.8, td 0+0.9*2-1=0.8, adv 0.8+0.45*0=0.8
+        // t=0: return 1+0.9*1.8=2.62, td 1+0.9*1-0.5=1.4, adv 1.4+0.45*0.8=1.76
+        assertArrayEquals(new float[]{2.62F, 1.8F, 2F}, returns, delta);
+        assertArrayEquals(new float[]{1.76F, 0.8F, 0F}, advantages, delta);
+    }
+
+    @Test
+    void segmentsAreIndependent() {
+        float[] values = {0.5F, 1F, 2F, 0.5F, 1F, 2F};
+        double[] rewards = {1D, 0D, 2D, 1D, 0D, 2D};
+        double[] mask = {1D, 1D, 1D, 1D, 1D, 1D};
+        float[] returns = new float[6];
+        float[] advantages = new float[6];
+        AdvantageEstimation.gae(values, rewards, mask, new int[]{3, 3}, 0.9D, 0.5D, false, returns, advantages);
+        float[] single = new float[3];
+        float[] singleAdvantages = new float[3];
+        AdvantageEstimation.gae(values, rewards, mask, 3, 0.9D, 0.5D, false, single, singleAdvantages);
+        for(int t=0;t<3;t++){
+            assertEquals(single[t], returns[t], 0F);
+            assertEquals(single[t], returns[t + 3], 0F);
+            assertEquals(singleAdvantages[t], advantages[t + 3], 0F);
+        }
+    }
+
+    @Test
+    void normalize() {
+        float[] values = {0F, 0F, 0F, 0F};
+        double[] rewards = {1D, 2D, 3D, 4D};
+        double[] mask = {0D, 0D, 0D, 0D};
+        float[] returns = new float[4];
+        float[] advantages = new float[4];
+        AdvantageEstimation.gae(values, rewards, mask, 4, 0.9D, 0.5D, true, returns, advantages);
+        double mean = 0D;
+        double squares = 0D;
+        for(float a : advantages){
+            mean += a / 4D;
+            squares += a * a / 4D;
+        }
+        assertEquals(0D, mean, delta);
+        assertEquals(1D, squares, 1e-4);
+        assertArrayEquals(new float[]{1F, 2F, 3F, 4F}, returns, delta);
+    }
+
+    @Test
+    void cumulativeReward() {
+        float[] values = {1F, 2F};
+        double[] rewards = {1D, 3D};
+        double[] mask = {1D, 0D};
+        float[] returns = new float[2];
+        float[] advantages = new float[2];
+        AdvantageEstimation.cumulativeReward(values, rewards, mask, 2, 0.5D, returns, advantages);
+        assertArrayEquals(new float[]{0.5F, 3F}, returns, delta);
+        assertArrayEquals(new float[]{3.5F, 3F}, advantages, delta);
+    }
+
+    @Test
+    void reusedBuffersMatchCoreEstimation() {
+        AdvantageBuffers buffers = new AdvantageBuffers(4);
+        INDArray values = Nd4j.create(new float[][]{{0.5F}, {1F}, {2F}});
+        INDArray[] gae = buffers.gae(values, new double[]{1D, 0D, 2D}, new double[]{1D, 1D, 0D}, 3, 0.9D, 0.5D);
+        assertEquals(3, gae[0].length());
+        assertArrayEquals(new float[]{2.62F, 1.8F, 2F}, gae[0].toFloatVector(), delta);
+        assertArrayEquals(new float[]{1.76F, 0.8F, 0F}, gae[1].toFloatVector(), delta);
+
+        // a full batch returns the reused vectors themselves, written in place
+        INDArray[] first = buffers.gae(Nd4j.zeros(4, 1), new double[]{1D, 1D, 1D, 1D}, new double[]{0D, 0D, 0D, 0D}, 4, 0.9D, 0.5D);
+        INDArray returns = first[0];
+        INDArray advantages = first[1];
+        gae = buffers.gae(Nd4j.ones(4, 1), new double[]{2D, 2D, 2D, 2D}, new double[]{0D, 0D, 0D, 0D}, 4, 0.9D, 0.5D);
+        assertSame(returns, gae[0]);
+        assertSame(advantages, gae[1]);
+        assertArrayEquals(new float[]{2F, 2F, 2F, 2F}, returns.toFloatVector(), delta);
+        assertArrayEquals(new float[]{1F, 1F, 1F, 1F}, advantages.toFloatVector(), delta);
+
+        // a longer batch grows the buffers, a full one returns them without a view
+        INDArray longer = Nd4j.zeros(6, 1);
+        gae = buffers.gae(longer, new double[]{1D, 1D, 1D, 1D, 1D, 1D}, new double[]{1D, 1D, 1D, 1D, 1D, 1D}, new int[]{3, 3}, 0.9D, 0.5D);
+        assertEquals(6, gae[0].length());
+        assertEquals(gae[0].getFloat(0), gae[0].getFloat(3), 0F);
+        assertEquals(1F, gae[0].getFloat(5), 0F);
+    }
+}
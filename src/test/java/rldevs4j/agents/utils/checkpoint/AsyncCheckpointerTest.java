@@ -0,0 +1,46 @@
+package rldevs4j.agents.utils.checkpoint;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncCheckpointerTest {
+
+    @Test
+    void keepsLastCheckpoints() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("checkpoints");
+        try (AsyncCheckpointer checkpointer = new AsyncCheckpointer(dir, 2)) {
+            for(int i=0;i<4;i++){
+                String content = "model " + i;
+                while(!checkpointer.submit(path -> Files.write(Paths.get(path + "model"), content.getBytes())))
+                    Thread.sleep(1);
+            }
+        }
+        List<Path> checkpoints = AsyncCheckpointer.checkpoints(dir);
+        assertEquals(2, checkpoints.size());
+        assertEquals("checkpoint-3", checkpoints.get(0).getFileName().toString());
+        assertEquals("model 3", new String(Files.readAllBytes(checkpoints.get(1).resolve("model"))));
+    }
+
+    @Test
+    void failedCheckpointLeavesNothing() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("checkpoints");
+        try (AsyncCheckpointer checkpointer = new AsyncCheckpointer(dir, 2)) {
+            checkpointer.submit(path -> {
+                Files.write(Paths.get(path + "model"), new byte[1]);
+                throw new IOException("disk full");
+            });
+        }
+        assertTrue(AsyncCheckpointer.checkpoints(dir).isEmpty());
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(0, files.count());
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package rldevs4j.agents.utils.compression;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GradientCompressorTest {
+
+    @Test
+    void topKKeepsLargestMagnitudes() {
+        GradientCompressor compressor = new GradientCompressor(GradientCompressor.Method.TOP_K, 0.5D, 1);
+        assertArrayEquals(new int[]{1, 3}, compressor.topK(new float[]{0.1F, -3F, 0.2F, 2F}, 2));
+        assertArrayEquals(new int[]{0, 1}, compressor.topK(new float[]{1F, 1F, 1F, 1F}, 2));
+    }
+
+    @Test
+    void errorFeedbackDelaysDroppedEntries() {
+        GradientCompressor compressor = new GradientCompressor(GradientCompressor.Method.TOP_K, 0.5D, 1);
+        long[] shape = new long[]{1, 4};
+        float[] first = compressor.compress(0, new float[]{0.1F, -3F, 0.2F, 2F}, shape).decompress();
+        assertArrayEquals(new float[]{0F, -3F, 0F, 2F}, first);
+        // the dropped 0.1 and 0.2 are sent once they add up
+        float[] second = compressor.compress(0, new float[]{0.1F, 0F, 0.2F, 0F}, shape).decompress();
+        assertArrayEquals(new float[]{0.2F, 0F, 0.4F, 0F}, second, 1e-6F);
+    }
+
+    @Test
+    void quantizationErrorIsBounded() {
+        GradientCompressor compressor = new GradientCompressor(GradientCompressor.Method.QUANTIZE, 1D, 1);
+        float[] gradient = new float[]{1.27F, -0.5F, 0.013F, 0F};
+        CompressedGradient compressed = compressor.compress(0, gradient, new long[]{4});
+        assertArrayEquals(gradient, compressed.decompress(), 0.005F);
+        assertEquals(8, compressed.getCompressedBytes());
+        assertEquals(16, compressed.getDenseBytes());
+    }
+
+    @Test
+    void serializationRoundTrip() throws IOException {
+        GradientCompressor compressor = new GradientCompressor(GradientCompressor.Method.TOP_K_QUANTIZE, 0.5D, 1);
+        CompressedGradient compressed = compressor.compress(0, new float[]{0.1F, -3F, 0.2F, 2F}, new long[]{1, 4});
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        compressed.write(new DataOutputStream(bytes));
+        CompressedGradient read = CompressedGradient.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertArrayEquals(compressed.decompress(), read.decompress());
+        assertArrayEquals(new long[]{1, 4}, read.getShape());
+    }
+}
@@ -0,0 +1,34 @@
+package rldevs4j.agents.utils.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EpisodeAggregatorTest {
+
+    @Test
+    void handlesEveryEpisodeBeforeClose() throws InterruptedException {
+        List<EpisodeAggregator.Episode> handled = new ArrayList<>();
+        EpisodeAggregator aggregator = new EpisodeAggregator("test_statistics", handled::addAll, 4);
+        Thread[] workers = new Thread[3];
+        for(int w=0;w<workers.length;w++){
+            String name = "worker_" + w;
+            workers[w] = new Thread(() -> {
+                for(int e=0;e<100;e++)
+                    aggregator.publish(new EpisodeAggregator.Episode(name, e, e, 1L));
+            });
+            workers[w].start();
+        }
+        for(Thread t : workers)
+            t.join();
+        aggregator.close();
+        assertEquals(300, handled.size());
+        double rewards = 0D;
+        for(EpisodeAggregator.Episode e : handled)
+            rewards += e.getReward();
+        assertEquals(3 * 4950D, rewards, 0D);
+    }
+}
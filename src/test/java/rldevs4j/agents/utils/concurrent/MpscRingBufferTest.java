@@ -0,0 +1,68 @@
+package rldevs4j.agents.utils.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MpscRingBufferTest {
+
+    @Test
+    void capacityRoundedUp() {
+        assertEquals(8, new MpscRingBuffer<Integer>(5).getCapacity());
+        assertEquals(8, new MpscRingBuffer<Integer>(8).getCapacity());
+    }
+
+    @Test
+    void fullAndWrapAround() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(2);
+        assertTrue(buffer.offer(1));
+        assertTrue(buffer.offer(2));
+        assertFalse(buffer.offer(3));
+        assertEquals(Integer.valueOf(1), buffer.poll());
+        assertTrue(buffer.offer(3));
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(2, buffer.drainTo(drained, 10));
+        assertEquals(2, (int) drained.get(0));
+        assertEquals(3, (int) drained.get(1));
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    void concurrentProducers() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 10000;
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(64);
+        Thread[] threads = new Thread[producers];
+        for(int p=0;p<producers;p++){
+            int id = p;
+            threads[p] = new Thread(() -> {
+                for(int i=0;i<perProducer;i++)
+                    while(!buffer.offer(id * perProducer + i))
+                        Thread.yield();
+            });
+            threads[p].start();
+        }
+        boolean[] seen = new boolean[producers * perProducer];
+        int[] last = new int[producers];
+        Arrays.fill(last, -1);
+        int received = 0;
+        while(received < seen.length){
+            Integer e = buffer.poll();
+            if(e == null)
+                continue;
+            assertFalse(seen[e]);
+            seen[e] = true;
+            // elements of one producer arrive in order
+            assertTrue(e % perProducer > last[e / perProducer]);
+            last[e / perProducer] = e % perProducer;
+            received++;
+        }
+        for(Thread t : threads)
+            t.join();
+        assertNull(buffer.poll());
+    }
+}
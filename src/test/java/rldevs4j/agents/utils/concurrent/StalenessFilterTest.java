@@ -0,0 +1,46 @@
+package rldevs4j.agents.utils.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StalenessFilterTest {
+
+    @Test
+    void accept() {
+        StalenessFilter filter = new StalenessFilter(StalenessFilter.Policy.ACCEPT, 2);
+        assertEquals(1D, filter.weight(0));
+        assertEquals(1D, filter.weight(50));
+        assertEquals(0, filter.getDropped());
+    }
+
+    @Test
+    void downweight() {
+        StalenessFilter filter = new StalenessFilter(StalenessFilter.Policy.DOWNWEIGHT, 2);
+        assertEquals(1D, filter.weight(0));
+        assertEquals(0.5D, filter.weight(1));
+        assertEquals(0D, filter.weight(3));
+        assertEquals(1, filter.getDropped());
+    }
+
+    @Test
+    void drop() {
+        StalenessFilter filter = new StalenessFilter(StalenessFilter.Policy.DROP, 2);
+        assertEquals(1D, filter.weight(2));
+        assertEquals(0D, filter.weight(3));
+    }
+
+    @Test
+    void histogram() {
+        StalenessFilter filter = new StalenessFilter(StalenessFilter.Policy.ACCEPT, 2);
+        filter.weight(0);
+        filter.weight(0);
+        filter.weight(1);
+        filter.weight(1000);
+        long[] h = filter.getHistogram();
+        assertEquals(2, h[0]);
+        assertEquals(1, h[1]);
+        assertEquals(1, h[StalenessFilter.HISTOGRAM_BUCKETS]);
+        assertEquals("{0:2, 1:1, >=32:1}", filter.histogramToString());
+    }
+}
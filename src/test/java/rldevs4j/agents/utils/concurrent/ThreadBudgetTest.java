@@ -0,0 +1,32 @@
+package rldevs4j.agents.utils.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThreadBudgetTest {
+
+    @Test
+    void leftoverCoresGoToServices() {
+        ThreadBudget budget = new ThreadBudget(16, 4, 1);
+        assertEquals(3, budget.getWorkerThreads());
+        assertEquals(4, budget.getServiceThreads());
+        assertEquals(16, budget.getPlannedThreads());
+        assertFalse(budget.isOversubscribed());
+    }
+
+    @Test
+    void oneThreadPerWorkerWhenCoresAreScarce() {
+        ThreadBudget budget = new ThreadBudget(16, 16, 1);
+        assertEquals(1, budget.getWorkerThreads());
+        assertEquals(1, budget.getServiceThreads());
+        assertTrue(budget.isOversubscribed());
+    }
+
+    @Test
+    void noServices() {
+        ThreadBudget budget = new ThreadBudget(8, 3, 0);
+        assertEquals(2, budget.getWorkerThreads());
+        assertEquals(0, budget.getServiceThreads());
+    }
+}
@@ -0,0 +1,80 @@
+package rldevs4j.agents.utils.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UpdateQueueTest {
+
+    @Test
+    void dropOldest() throws InterruptedException {
+        UpdateQueue<Integer> queue = new UpdateQueue<>(2, UpdateQueue.Policy.DROP_OLDEST);
+        queue.put(1);
+        queue.put(2);
+        queue.put(3);
+        assertEquals(2, queue.size());
+        assertEquals(1, queue.getDropped());
+        assertEquals(2, (int) queue.take());
+        assertEquals(3, (int) queue.take());
+    }
+
+    @Test
+    void blockUntilTaken() throws InterruptedException {
+        UpdateQueue<Integer> queue = new UpdateQueue<>(1, UpdateQueue.Policy.BLOCK);
+        queue.put(1);
+        Thread producer = new Thread(() -> {
+            try {
+                queue.put(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        producer.join(100);
+        assertTrue(producer.isAlive());
+        assertEquals(1, (int) queue.take());
+        producer.join(1000);
+        assertFalse(producer.isAlive());
+        assertEquals(2, (int) queue.take());
+    }
+
+    @Test
+    void closeWakesConsumer() throws InterruptedException {
+        UpdateQueue<Integer> queue = new UpdateQueue<>(4, UpdateQueue.Policy.BLOCK);
+        queue.put(1);
+        queue.close();
+        assertFalse(queue.put(2));
+        assertEquals(1, (int) queue.take());
+        assertNull(queue.take());
+    }
+
+    @Test
+    void pollAndDrain() throws InterruptedException {
+        UpdateQueue<Integer> queue = new UpdateQueue<>(4, UpdateQueue.Policy.BLOCK);
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        queue.put(1);
+        queue.put(2);
+        queue.put(3);
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(2, queue.drainTo(drained, 2));
+        assertEquals(1, queue.size());
+        assertEquals(3, queue.getMaxDepth());
+    }
+
+    @Test
+    void takeBatch() throws InterruptedException {
+        UpdateQueue<Integer> queue = new UpdateQueue<>(8, UpdateQueue.Policy.BLOCK);
+        for(int i=0;i<5;i++)
+            queue.put(i);
+        List<Integer> batch = new ArrayList<>();
+        assertEquals(3, queue.takeBatch(batch, 3, 0, TimeUnit.MILLISECONDS));
+        assertEquals(2, queue.takeBatch(batch, 3, 10, TimeUnit.MILLISECONDS));
+        assertEquals(5, batch.size());
+        queue.close();
+        assertEquals(0, queue.takeBatch(batch, 3, 10, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,83 @@
+package rldevs4j.agents.utils.memory;
+
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RolloutBufferTest {
+
+    private void step(RolloutBuffer buffer, float obs, int action, double reward, boolean done){
+        buffer.startStep(Nd4j.create(new float[]{obs, -obs}));
+        buffer.setAction(action);
+        buffer.endStep(reward, done);
+    }
+
+    @Test
+    void viewsOfFilledRows() {
+        RolloutBuffer buffer = new RolloutBuffer(4);
+        step(buffer, 1F, 2, 0.5D, false);
+        step(buffer, 2F, 0, 1.5D, true);
+        INDArray obs = buffer.getObservations();
+        assertArrayEquals(new long[]{2, 2}, obs.shape());
+        assertEquals(-2D, obs.getDouble(1, 1), 0D);
+        INDArray actions = buffer.getActions();
+        assertArrayEquals(new long[]{2, 1}, actions.shape());
+        assertEquals(2D, actions.getDouble(0, 0), 0D);
+        assertEquals(0D, actions.getDouble(1, 0), 0D);
+        assertArrayEquals(new double[]{0.5D, 1.5D}, buffer.getRewards(), 0D);
+        assertArrayEquals(new double[]{1D, 0D}, buffer.getMask(), 0D);
+    }
+
+    @Test
+    void fullAndClear() {
+        RolloutBuffer buffer = new RolloutBuffer(2);
+        step(buffer, 1F, 0, 0D, false);
+        step(buffer, 2F, 1, 0D, false);
+        assertTrue(buffer.isFull());
+        assertArrayEquals(new long[]{2, 2}, buffer.getObservations().shape());
+        buffer.clear();
+        assertTrue(buffer.isEmpty());
+        assertThrows(IllegalStateException.class, () -> buffer.endStep(0D, false));
+    }
+
+    @Test
+    void clearKeepsStartedStep() {
+        RolloutBuffer buffer = new RolloutBuffer(3);
+        step(buffer, 1F, 0, 0D, false);
+        buffer.startStep(Nd4j.create(new float[]{7F, -7F}));
+        buffer.setAction(2);
+        buffer.clear();
+        assertTrue(buffer.hasPendingStep());
+        buffer.endStep(3D, true);
+        assertEquals(1, buffer.size());
+        assertEquals(7D, buffer.getObservations().getDouble(0, 0), 0D);
+        assertEquals(2D, buffer.getActions().getDouble(0, 0), 0D);
+        assertArrayEquals(new double[]{3D}, buffer.getRewards(), 0D);
+    }
+
+    @Test
+    void behaviourOutputsWrittenInPlace() {
+        RolloutBuffer buffer = new RolloutBuffer(3);
+        buffer.startStep(Nd4j.create(new float[]{1F, -1F}));
+        INDArray first = buffer.getStepProbs(3);
+        assertSame(first, buffer.getStepProbs(3));
+        first.assign(Nd4j.create(new float[][]{{0.2F, 0.5F, 0.3F}}));
+        buffer.setLogProb(Math.log(0.5D));
+        buffer.setValue(4D);
+        buffer.endStep(0D, false);
+        buffer.startStep(Nd4j.create(new float[]{2F, -2F}));
+        buffer.getStepProbs(3).assign(Nd4j.create(new float[][]{{0.6F, 0.1F, 0.3F}}));
+        buffer.setValue(5D);
+        assertArrayEquals(new long[]{1, 3}, buffer.getProbs().shape());
+        assertEquals(0.5D, buffer.getProbs().getDouble(0, 1), 1e-6);
+        assertEquals(4D, buffer.getValues().getDouble(0, 0), 0D);
+        buffer.clear();
+        // the started step moved to the first row and its view
+        assertSame(first, buffer.getStepProbs(3));
+        buffer.endStep(1D, true);
+        assertEquals(0.6D, buffer.getProbs().getDouble(0, 0), 1e-6);
+        assertEquals(5D, buffer.getValues().getDouble(0, 0), 0D);
+    }
+}
@@ -0,0 +1,56 @@
+package rldevs4j.agents.utils.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsRegistryTest {
+
+    @Test
+    void histogramBuckets() {
+        Histogram h = new Histogram();
+        for(int i=0;i<99;i++)
+            h.record(100);
+        h.record(5000);
+        assertEquals(100, h.getCount());
+        assertEquals(99 * 100 + 5000, h.getSum());
+        assertEquals(149D, h.getMean(), 1e-9);
+        // 100 falls in [64, 128), 5000 in [4096, 8192)
+        assertEquals(127, h.getQuantile(0.5D));
+        assertEquals(127, h.getQuantile(0.99D));
+        assertEquals(8191, h.getQuantile(1D));
+    }
+
+    @Test
+    void emptyHistogram() {
+        Histogram h = new Histogram();
+        assertEquals(0D, h.getMean(), 0D);
+        assertEquals(0, h.getQuantile(0.5D));
+    }
+
+    @Test
+    void snapshot() {
+        MetricsRegistry registry = new MetricsRegistry("test");
+        registry.counter("steps").add(10);
+        registry.counter("steps").inc();
+        registry.gauge("depth", () -> 3D);
+        registry.histogram("latency").record(1);
+        Map<String, Double> snapshot = registry.snapshot();
+        assertEquals(11D, snapshot.get("steps"), 0D);
+        assertEquals(3D, snapshot.get("depth"), 0D);
+        assertEquals(1D, snapshot.get("latency_count"), 0D);
+        assertEquals(1D, snapshot.get("latency_p50"), 0D);
+    }
+
+    @Test
+    void prometheus() {
+        MetricsRegistry registry = new MetricsRegistry("ppo");
+        registry.counter("worker_0_env_steps").add(7);
+        registry.gauge("queue-depth", () -> 2D);
+        String text = registry.toPrometheus();
+        assertTrue(text.contains("# TYPE ppo_worker_0_env_steps counter\nppo_worker_0_env_steps 7.0\n"));
+        assertTrue(text.contains("# TYPE ppo_queue_depth gauge\nppo_queue_depth 2.0\n"));
+    }
+}